@@ -0,0 +1,25 @@
+package gitlet;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/** Runs the benchmarks with the GC profiler, so that each result comes
+ *  with its allocation rate and bytes allocated per operation.  ARGS are
+ *  JMH's own options: for instance, "CommandBenchmarks.log -p files=100"
+ *  runs only the log benchmark on the smaller repositories.
+ *
+ *  @author alysa liu
+ */
+public class Benchmarks {
+
+    public static void main(String[] args) throws CommandLineOptionException,
+            RunnerException {
+        CommandLineOptions options = new CommandLineOptions(args);
+        new Runner(new OptionsBuilder().parent(options)
+                .addProfiler(GCProfiler.class).build()).run();
+    }
+}
@@ -0,0 +1,112 @@
+package gitlet;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Benchmarks of whole gitlet commands, each run in-process through
+ *  Main.run, lock and journal included, against a SyntheticRepo.  Commands
+ *  that change the repository are set up before each invocation so that
+ *  every run does the same work: commit has a change staged, checkout
+ *  switches to the other branch, and merge starts from master before the
+ *  merge.
+ *
+ *  @author alysa liu
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CommandBenchmarks {
+
+    /** Where a benchmark is up to in the repository. */
+    @State(Scope.Thread)
+    public static class Cursor {
+        /** The branch checked out last. */
+        String branch = "master";
+        /** The file changed last. */
+        int file;
+    }
+
+    @Benchmark
+    public void add(SyntheticRepo repo, Cursor state) throws IOException {
+        state.file = (state.file + 1) % repo.files;
+        repo.run("add", repo.write(state.file));
+    }
+
+    @Benchmark
+    public void addAll(SyntheticRepo repo) {
+        repo.run("add", ".");
+    }
+
+    /** Stages a change before each commit. */
+    @State(Scope.Thread)
+    public static class Staged extends Cursor {
+        @Setup(Level.Invocation)
+        public void stage(SyntheticRepo repo) throws IOException {
+            file = (file + 1) % repo.files;
+            repo.run("add", repo.write(file));
+        }
+    }
+
+    @Benchmark
+    public void commit(SyntheticRepo repo, Staged state) {
+        repo.run("commit", "Change " + repo.path(state.file));
+    }
+
+    @Benchmark
+    public void status(SyntheticRepo repo) {
+        repo.run("status");
+    }
+
+    @Benchmark
+    public void log(SyntheticRepo repo) {
+        repo.run("log");
+    }
+
+    @Benchmark
+    public void globalLog(SyntheticRepo repo) {
+        repo.run("global-log");
+    }
+
+    @Benchmark
+    public void find(SyntheticRepo repo) {
+        repo.run("find", "Change " + repo.path(0));
+    }
+
+    @Benchmark
+    public void checkoutFile(SyntheticRepo repo) {
+        repo.run("checkout", "--", repo.path(1));
+    }
+
+    @Benchmark
+    public void checkoutBranch(SyntheticRepo repo, Cursor state) {
+        state.branch = state.branch.equals("master") ? "side" : "master";
+        repo.run("checkout", state.branch);
+    }
+
+    /** Puts master back where it was before the merge before each merge. */
+    @State(Scope.Thread)
+    public static class Unmerged {
+        @Setup(Level.Invocation)
+        public void reset(SyntheticRepo repo) {
+            repo.run("reset", repo.masterHead);
+        }
+    }
+
+    @Benchmark
+    public void merge(SyntheticRepo repo, Unmerged state) {
+        repo.run("merge", "side");
+    }
+}
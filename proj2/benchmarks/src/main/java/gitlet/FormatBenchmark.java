@@ -0,0 +1,87 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import static gitlet.Utils.*;
+
+/** Compares the size of gitlet's state files, and the time taken to save
+ *  and load them, in the Codec format and under Java serialization.
+ *  Usage: java -cp benchmarks/target/benchmarks.jar gitlet.FormatBenchmark
+ *         [ENTRIES [ROUNDS]].
+ *
+ *  @author alysa liu
+ */
+public class FormatBenchmark {
+
+    /** A commit as it was saved by Java serialization. */
+    private static class SerializedCommit implements Serializable {
+        /** The version of this class's serialized form. */
+        private static final long serialVersionUID = 1L;
+        /** The fields of a commit. */
+        private String message, author, timeStamp, tree, parent, secondary, id;
+    }
+
+    public static void main(String[] args) {
+        int entries = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+
+        HashMap<String, String> map = new HashMap<>();
+        for (int i = 0; i < entries; i += 1) {
+            map.put("src/dir" + (i % 100) + "/file" + i + ".txt", sha1("blob " + i));
+        }
+        System.out.printf("%-28s %10s %12s %12s%n", "object", "bytes", "save ns/op", "load ns/op");
+        report("map, serialized", rounds, () -> serialize(map), FormatBenchmark::deserialize);
+        report("map, codec", rounds, () -> Codec.encodeMap(map), Codec::decodeMap);
+
+        SerializedCommit old = new SerializedCommit();
+        old.message = "Add a stat-cache index and report unstaged and untracked files";
+        old.author = "WHOISTHEAUTHOR??";
+        old.timeStamp = "Sun Oct 18 12:33:58 2026 +0000";
+        old.tree = sha1("tree");
+        old.parent = sha1("parent");
+        old.id = sha1("commit");
+        report("commit, serialized", rounds * 50, () -> serialize(old),
+                FormatBenchmark::deserialize);
+        Commit current = Commit.decode(serialize(old), old.id);
+        report("commit, codec", rounds * 50, current::encode,
+                data -> Commit.decode(data, old.id));
+    }
+
+    /** Prints the size of the bytes SAVE makes and the average time taken
+     *  over ROUNDS by SAVE and by LOAD, after as many rounds to warm up,
+     *  under the heading NAME. */
+    private static void report(String name, int rounds, Supplier<byte[]> save,
+                               Function<byte[], Object> load) {
+        byte[] data = save.get();
+        for (int i = 0; i < rounds; i += 1) {
+            load.apply(save.get());
+        }
+        System.gc();
+        long start = System.nanoTime();
+        for (int i = 0; i < rounds; i += 1) {
+            data = save.get();
+        }
+        long saved = (System.nanoTime() - start) / rounds;
+        System.gc();
+        start = System.nanoTime();
+        for (int i = 0; i < rounds; i += 1) {
+            load.apply(data);
+        }
+        long loaded = (System.nanoTime() - start) / rounds;
+        System.out.printf("%-28s %10d %12d %12d%n", name, data.length, saved, loaded);
+    }
+
+    /** Returns the object Java serialization saved in DATA. */
+    private static Object deserialize(byte[] data) {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(data))) {
+            return in.readObject();
+        } catch (IOException | ClassNotFoundException excp) {
+            throw error("Cannot deserialize: %s", excp.getMessage());
+        }
+    }
+}
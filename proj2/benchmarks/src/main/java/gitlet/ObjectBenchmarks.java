@@ -0,0 +1,123 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import static gitlet.Utils.*;
+
+/** Benchmarks of the pieces every command is built from: hashing with
+ *  Utils.sha1, saving and loading with Utils.writeObject and readObject
+ *  (Java serialization, as the staging areas were once kept) next to the
+ *  Codec format that replaced them, and making, hashing and encoding a
+ *  Commit.
+ *
+ *  @author alysa liu
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ObjectBenchmarks {
+
+    /** Contents to hash. */
+    @State(Scope.Benchmark)
+    public static class Contents {
+        /** The number of bytes to hash. */
+        @Param({"1024", "1048576"})
+        int bytes;
+        /** The bytes hashed. */
+        byte[] data;
+
+        @Setup(Level.Trial)
+        public void fill() {
+            data = new byte[bytes];
+            new Random(61).nextBytes(data);
+        }
+    }
+
+    @Benchmark
+    public String sha1(Contents contents) {
+        return Utils.sha1(contents.data);
+    }
+
+    /** A map of paths to blob ids, like a staging area, and files to keep
+     *  it in under each format. */
+    @State(Scope.Benchmark)
+    public static class Staging {
+        /** The number of entries in the map. */
+        @Param({"100", "10000"})
+        int entries;
+        /** The map saved and loaded. */
+        HashMap<String, String> map = new HashMap<>();
+        /** The file the map is saved to by Java serialization. */
+        File file;
+        /** The file the map is saved to in the Codec format. */
+        File codecFile;
+
+        @Setup(Level.Trial)
+        public void fill() throws IOException {
+            for (int i = 0; i < entries; i += 1) {
+                map.put("dir" + (i % 32) + "/file" + i + ".txt",
+                        Utils.sha1("blob " + i));
+            }
+            file = Files.createTempFile("gitlet-bench-", ".map").toFile();
+            Utils.writeObject(file, map);
+            codecFile = Files.createTempFile("gitlet-bench-", ".codec").toFile();
+            writeContents(codecFile, Codec.encodeMap(map));
+        }
+
+        @TearDown(Level.Trial)
+        public void remove() {
+            file.delete();
+            codecFile.delete();
+        }
+    }
+
+    @Benchmark
+    public void writeObject(Staging staging) {
+        Utils.writeObject(staging.file, staging.map);
+    }
+
+    @Benchmark
+    public HashMap readObject(Staging staging) {
+        return Utils.readObject(staging.file, HashMap.class);
+    }
+
+    @Benchmark
+    public void writeCodec(Staging staging) {
+        writeContents(staging.codecFile, Codec.encodeMap(staging.map));
+    }
+
+    @Benchmark
+    public HashMap readCodec(Staging staging) {
+        return Codec.decodeMap(readContents(staging.codecFile));
+    }
+
+    @Benchmark
+    public String newCommit(SyntheticRepo repo) {
+        return new Commit(new Date(), "Benchmark commit", repo.masterHead, null).id();
+    }
+
+    @Benchmark
+    public byte[] encodeCommit(SyntheticRepo repo) {
+        return Repository.loadCommit(repo.masterHead).encode();
+    }
+}
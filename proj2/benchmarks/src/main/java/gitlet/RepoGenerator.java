@@ -0,0 +1,245 @@
+package gitlet;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import static gitlet.Utils.*;
+
+/** Builds a large repository in the current directory, for measuring
+ *  gitlet at scale.
+ *  Usage: java -cp benchmarks/target/benchmarks.jar gitlet.RepoGenerator
+ *         [--files N] [--commits N] [--branches N] [--merge-every N]
+ *         [--seed N].
+ *
+ *  The first commit after the initial one adds FILES files, spread over
+ *  2048 directories two deep.  Each of the COMMITS commits that
+ *  follow goes on a branch picked at random, and changes, adds or removes
+ *  a few files; every MERGE-EVERY commits, one branch is merged into
+ *  another instead.  The same seed always gives the same repository, down
+ *  to the commit ids, since commit times are set from the commit count.
+ *
+ *  Commits are made through Commit and saved straight into the object
+ *  store rather than through commit, which would also stage, journal and
+ *  index each one; the commit-graph and the message index are built once
+ *  at the end.  The head of master is checked out.
+ *
+ *  @author alysa liu
+ */
+public class RepoGenerator {
+
+    /** The time of the first generated commit: 2020-01-01 00:00 UTC. */
+    private static final long START = 1577836800000L;
+    /** The time between generated commits, in milliseconds. */
+    private static final long STEP = 60000;
+
+    /** The number of files in the first commit. */
+    private int files = 100000;
+    /** The number of commits after the first. */
+    private int commits = 50000;
+    /** The number of branches, master included. */
+    private int branches = 16;
+    /** A merge is made once in this many commits. */
+    private int mergeEvery = 25;
+    /** The seed of the random choices. */
+    private long seed = 61;
+
+    /** The source of the random choices. */
+    private Random random;
+    /** The names of the branches. */
+    private List<String> names = new ArrayList<>();
+    /** The head of each branch. */
+    private HashMap<String, String> heads = new HashMap<>();
+    /** The changes made on each branch since it was last merged into
+     *  another, by path; removed files map to null. */
+    private HashMap<String, HashMap<String, String>> unmerged = new HashMap<>();
+    /** The files that have been removed. */
+    private HashSet<Integer> removed = new HashSet<>();
+    /** The number of files ever added. */
+    private int added;
+    /** The number of commits made so far, which sets the time of the
+     *  next one. */
+    private int made;
+
+    public static void main(String[] args) {
+        RepoGenerator generator = new RepoGenerator();
+        if (!generator.parse(args)) {
+            System.out.println("Usage: java gitlet.RepoGenerator [--files N] [--commits N] "
+                    + "[--branches N] [--merge-every N] [--seed N]");
+            return;
+        }
+        if (Repository.GITLET_DIR.exists()) {
+            System.out.println("A Gitlet version-control system "
+                    + "already exists in the current directory.");
+            return;
+        }
+        long start = System.nanoTime();
+        generator.generate();
+        message("Generated %d files and %d commits on %d branches in %d ms.",
+                generator.added - generator.removed.size(), generator.made, generator.branches,
+                (System.nanoTime() - start) / 1000000);
+    }
+
+    /** Sets the options in ARGS.  Returns false if they are not valid. */
+    private boolean parse(String[] args) {
+        if (args.length % 2 != 0) {
+            return false;
+        }
+        for (int i = 0; i < args.length; i += 2) {
+            long value;
+            try {
+                value = Long.parseLong(args[i + 1]);
+            } catch (NumberFormatException excp) {
+                return false;
+            }
+            if (value < 0 || value > Integer.MAX_VALUE && !args[i].equals("--seed")) {
+                return false;
+            }
+            if (args[i].equals("--files")) {
+                files = (int) value;
+            } else if (args[i].equals("--commits")) {
+                commits = (int) value;
+            } else if (args[i].equals("--branches")) {
+                branches = (int) value;
+            } else if (args[i].equals("--merge-every")) {
+                mergeEvery = (int) value;
+            } else if (args[i].equals("--seed")) {
+                seed = value;
+            } else {
+                return false;
+            }
+        }
+        return files > 0 && branches > 0 && mergeEvery > 1;
+    }
+
+    /** Makes the repository. */
+    private void generate() {
+        random = new Random(seed);
+        Repository repo = new Repository();
+        repo.init();
+        String initial = CommitGraph.get().id(0);
+
+        HashMap<String, String> all = new HashMap<>();
+        for (added = 0; added < files; added += 1) {
+            all.put(path(added), blob(added, 0));
+        }
+        String first = commit("Add " + files + " files", initial, null, all, new HashMap<>());
+        for (int b = 0; b < branches; b += 1) {
+            String name = b == 0 ? "master" : "b" + b;
+            names.add(name);
+            heads.put(name, first);
+            unmerged.put(name, new HashMap<>());
+        }
+        for (int i = 0; i < commits; i += 1) {
+            if (branches > 1 && i % mergeEvery == mergeEvery - 1) {
+                merge();
+            } else {
+                change(i);
+            }
+        }
+
+        CommitGraph.GRAPH_FILE.delete();
+        CommitGraph.get();
+        MessageIndex.find("");
+        for (String name : names) {
+            repo.moveBranch(name, heads.get(name));
+        }
+        repo.writeHeadFiles();
+        StatCache.flush();
+        FileCache.write(Main.REPO_OBJECT, repo, repo.encode());
+        Journal.commit();
+    }
+
+    /** Makes commit I: a change to one to five files on a random branch,
+     *  now and then adding or removing one. */
+    private void change(int i) {
+        String branch = names.get(random.nextInt(branches));
+        HashMap<String, String> additions = new HashMap<>();
+        HashMap<String, String> removals = new HashMap<>();
+        for (int n = 1 + random.nextInt(5); n > 0; n -= 1) {
+            int file = random.nextInt(added);
+            if (!removed.contains(file)) {
+                additions.put(path(file), blob(file, i + 1));
+            }
+        }
+        int roll = random.nextInt(100);
+        if (roll < 10) {
+            additions.put(path(added), blob(added, 0));
+            added += 1;
+        } else if (roll < 15 && added - removed.size() > 1) {
+            int file = random.nextInt(added);
+            if (!removed.contains(file) && !additions.containsKey(path(file))) {
+                removals.put(path(file), null);
+                removed.add(file);
+            }
+        }
+        if (additions.isEmpty() && removals.isEmpty()) {
+            additions.put(path(added), blob(added, 0));
+            added += 1;
+        }
+        String message = "Commit " + i + " on " + branch;
+        String id = commit(message, heads.get(branch), null, additions, removals);
+        heads.put(branch, id);
+        unmerged.get(branch).putAll(additions);
+        removals.keySet().forEach(path -> unmerged.get(branch).put(path, null));
+    }
+
+    /** Merges one random branch into another, taking the changes made on
+     *  the first since it was last merged. */
+    private void merge() {
+        int from = random.nextInt(branches);
+        int into = (from + 1 + random.nextInt(branches - 1)) % branches;
+        String given = names.get(from);
+        String current = names.get(into);
+        HashMap<String, String> additions = new HashMap<>();
+        HashMap<String, String> removals = new HashMap<>();
+        for (Map.Entry<String, String> change : unmerged.get(given).entrySet()) {
+            if (change.getValue() == null) {
+                removals.put(change.getKey(), null);
+            } else {
+                additions.put(change.getKey(), change.getValue());
+            }
+        }
+        String id = commit("Merged " + given + " into " + current + ".", heads.get(current),
+                heads.get(given), additions, removals);
+        heads.put(current, id);
+        unmerged.get(current).putAll(unmerged.get(given));
+        unmerged.get(given).clear();
+    }
+
+    /** Saves a commit with parents PARENT and SECONDARY, which may be
+     *  null, and message MESSAGE, that makes ADDITIONS and REMOVALS to the
+     *  files of PARENT.  Returns its id. */
+    private String commit(String message, String parent, String secondary,
+                          HashMap<String, String> additions,
+                          HashMap<String, String> removals) {
+        Commit commit = new Commit(new Date(START + STEP * made), message, parent, secondary);
+        commit.applyStaging(additions, removals);
+        String id = commit.id();
+        ObjectStore.COMMITS.writeBytes(id, commit.encode());
+        ObjectCache.put(ObjectCache.COMMIT, id, commit, commit.weight());
+        made += 1;
+        return id;
+    }
+
+    /** Returns the path of file FILE, in one of 2048 directories two
+     *  deep. */
+    private static String path(int file) {
+        return "d" + (file % 64) + "/d" + (file / 64 % 32) + "/f" + file + ".txt";
+    }
+
+    /** Saves version VERSION of file FILE as a blob and returns its id. */
+    private String blob(int file, int version) {
+        StringBuilder contents = new StringBuilder();
+        contents.append("File ").append(file).append(", version ").append(version).append(".\n");
+        for (int n = 1 + random.nextInt(20); n > 0; n -= 1) {
+            contents.append("Line ").append(n).append(" of ").append(path(file)).append(".\n");
+        }
+        String blob = contents.toString();
+        Repository.saveBlob(blob);
+        return sha1(blob);
+    }
+}
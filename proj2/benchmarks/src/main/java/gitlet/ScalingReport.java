@@ -0,0 +1,305 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.stream.Stream;
+import static gitlet.Utils.*;
+
+/** Measures how gitlet's commands grow with the size of the repository.
+ *  Usage: java -cp benchmarks/target/benchmarks.jar gitlet.ScalingReport
+ *         [--sizes N,N,...] [--files-per-commit N] [--out PREFIX] [--keep].
+ *
+ *  For each size, makes a repository of that many commits, and twice as
+ *  many files by default, with RepoGenerator in a temporary directory, then
+ *  runs a series of commands in it.  Each command runs in a JVM of its own
+ *  with the daemon off, and reports its wall time, the bytes it read and
+ *  wrote (rchar and wchar from /proc/self/io, so reads served from the
+ *  page cache count too) and its peak heap (the sum of the peaks of the
+ *  heap's memory pools).  The results go to PREFIX.csv, one row per
+ *  command and size, and PREFIX.md, a table per measure with a column per
+ *  size.  The time table ends with the exponent k for which time grows as
+ *  size^k between the two largest sizes; commands with k well above 1 are
+ *  marked super-linear.  A command that throws is timed up to the throw
+ *  and marked as failed, and the report goes on.
+ *
+ *  @author alysa liu
+ */
+public class ScalingReport {
+
+    /** The file added by the add step. */
+    private static final String NEW_FILE = "scaling-report.txt";
+    /** The commands run at each size, in order, each named by its first
+     *  element.  NEW_FILE is written just before the add. */
+    private static final String[][] STEPS = {
+        {"status", "status"},
+        {"log", "log"},
+        {"global-log", "global-log"},
+        {"find", "find", "initial commit"},
+        {"add", "add", NEW_FILE},
+        {"commit", "commit", "Add the scaling report file"},
+        {"branch", "branch", "scaling"},
+        {"checkout branch", "checkout", "b1"},
+        {"checkout back", "checkout", "master"},
+        {"merge", "merge", "b1"},
+        {"gc", "gc"},
+    };
+    /** Exponents above this mark a command as super-linear. */
+    private static final double SUPER_LINEAR = 1.2;
+    /** Commands faster than this, in milliseconds, at the largest size are
+     *  never marked super-linear, as their times are mostly noise. */
+    private static final long NOISE = 100;
+    /** The start of the line a probe reports its measures on. */
+    private static final String PROBE = "probe:";
+
+    /** One measurement: a command run on a repository of some size. */
+    private static class Result {
+        /** The number of commits in the repository. */
+        int size;
+        /** The wall time of the command, in milliseconds. */
+        long millis;
+        /** The bytes read and written by the command, or -1 if they are
+         *  not known. */
+        long read, written;
+        /** The peak heap of the command, in bytes. */
+        long heap;
+        /** True iff the command threw an exception. */
+        boolean failed;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals("--probe")) {
+            probe(args[1], Arrays.copyOfRange(args, 2, args.length));
+            return;
+        }
+        int[] sizes = {1000, 10000, 50000};
+        int filesPerCommit = 2;
+        String out = "scaling";
+        boolean keep = false;
+        for (int i = 0; i < args.length; i += 1) {
+            if (args[i].equals("--keep")) {
+                keep = true;
+            } else if (i + 1 == args.length) {
+                System.out.println("Incorrect operands.");
+                return;
+            } else if (args[i].equals("--sizes")) {
+                sizes = Arrays.stream(args[++i].split(",")).mapToInt(Integer::parseInt).toArray();
+            } else if (args[i].equals("--files-per-commit")) {
+                filesPerCommit = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--out")) {
+                out = args[++i];
+            } else {
+                System.out.println("Incorrect operands.");
+                return;
+            }
+        }
+
+        LinkedHashMap<String, List<Result>> results = new LinkedHashMap<>();
+        for (int size : sizes) {
+            Path dir = Files.createTempDirectory("gitlet-scaling-");
+            System.out.printf("%d commits, %d files in %s%n", size, size * filesPerCommit, dir);
+            measure(results, "generate", size, dir, "gitlet.RepoGenerator", "--commits",
+                    Integer.toString(size), "--files", Integer.toString(size * filesPerCommit));
+            for (String[] step : STEPS) {
+                if (step[0].equals("add")) {
+                    Files.writeString(dir.resolve(NEW_FILE), "Added at " + size + " commits.\n");
+                }
+                String[] command = new String[step.length];
+                command[0] = "gitlet.Main";
+                System.arraycopy(step, 1, command, 1, step.length - 1);
+                measure(results, step[0], size, dir, command);
+            }
+            if (!keep) {
+                try (Stream<Path> paths = Files.walk(dir)) {
+                    paths.sorted(Comparator.reverseOrder()).map(Path::toFile)
+                            .forEach(File::delete);
+                }
+            }
+        }
+        writeContents(new File(out + ".csv"), csv(results));
+        String markdown = markdown(results, sizes);
+        writeContents(new File(out + ".md"), markdown);
+        System.out.print(markdown);
+    }
+
+    /** Runs CLASS with ARGS in a new JVM in DIR under the probe, and adds
+     *  what it measured to RESULTS under NAME and SIZE. */
+    private static void measure(LinkedHashMap<String, List<Result>> results, String name,
+                                int size, Path dir, String... classAndArgs)
+            throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>(List.of("java", "-cp",
+                System.getProperty("java.class.path"), "gitlet.ScalingReport", "--probe"));
+        command.addAll(Arrays.asList(classAndArgs));
+        ProcessBuilder builder = new ProcessBuilder(command).directory(dir.toFile())
+                .redirectErrorStream(true);
+        builder.environment().put("GITLET_NO_DAEMON", "1");
+        Process process = builder.start();
+        String output = new String(process.getInputStream().readAllBytes(),
+                StandardCharsets.UTF_8);
+        process.waitFor();
+        int at = output.lastIndexOf(PROBE);
+        if (at < 0) {
+            throw error("%s failed: %s", name, output);
+        }
+        String[] measures = output.substring(at + PROBE.length()).trim().split(" ");
+        Result result = new Result();
+        result.size = size;
+        result.millis = Long.parseLong(measures[0]);
+        result.read = Long.parseLong(measures[1]);
+        result.written = Long.parseLong(measures[2]);
+        result.heap = Long.parseLong(measures[3]);
+        result.failed = measures.length > 4;
+        results.computeIfAbsent(name, k -> new ArrayList<>()).add(result);
+        System.out.printf("  %-16s %8d ms%s%n", name, result.millis,
+                result.failed ? ", failed:\n" + output.substring(0, at) : "");
+    }
+
+    /** Runs the main method of CLASSNAME with ARGS in this JVM, with its
+     *  output discarded, then prints its wall time, bytes read and
+     *  written, and peak heap on one line, followed by "failed" if it
+     *  threw an exception, whose trace goes to standard error. */
+    private static void probe(String className, String[] args) throws Exception {
+        PrintStream stdout = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        List<MemoryPoolMXBean> heap = new ArrayList<>();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+                heap.add(pool);
+            }
+        }
+        long[] io = io();
+        long start = System.nanoTime();
+        boolean failed = false;
+        try {
+            Class.forName(className).getMethod("main", String[].class)
+                    .invoke(null, (Object) args);
+        } catch (InvocationTargetException excp) {
+            excp.getCause().printStackTrace();
+            failed = true;
+        }
+        long millis = (System.nanoTime() - start) / 1000000;
+        long[] after = io();
+        long peak = 0;
+        for (MemoryPoolMXBean pool : heap) {
+            peak += pool.getPeakUsage().getUsed();
+        }
+        System.setOut(stdout);
+        System.out.printf("%s %d %d %d %d%s%n", PROBE, millis,
+                io[0] < 0 ? -1 : after[0] - io[0], io[1] < 0 ? -1 : after[1] - io[1], peak,
+                failed ? " failed" : "");
+    }
+
+    /** Returns the bytes this process has read and written so far, or -1s
+     *  where /proc/self/io cannot be read. */
+    private static long[] io() {
+        long[] io = {-1, -1};
+        try {
+            for (String line : Files.readAllLines(Path.of("/proc/self/io"))) {
+                if (line.startsWith("rchar:")) {
+                    io[0] = Long.parseLong(line.substring(6).trim());
+                } else if (line.startsWith("wchar:")) {
+                    io[1] = Long.parseLong(line.substring(6).trim());
+                }
+            }
+        } catch (IOException | NumberFormatException excp) {
+            return new long[] {-1, -1};
+        }
+        return io;
+    }
+
+    /** Returns RESULTS as comma-separated values, one row per command and
+     *  size. */
+    private static String csv(LinkedHashMap<String, List<Result>> results) {
+        StringBuilder csv = new StringBuilder(
+                "command,commits,millis,bytes_read,bytes_written,peak_heap_bytes,failed\n");
+        results.forEach((name, rows) -> {
+            for (Result r : rows) {
+                csv.append(String.format("%s,%d,%d,%d,%d,%d,%b%n", name, r.size, r.millis,
+                        r.read, r.written, r.heap, r.failed));
+            }
+        });
+        return csv.toString();
+    }
+
+    /** Returns RESULTS as Markdown tables of time, I/O and heap, with a
+     *  column for each of SIZES. */
+    private static String markdown(LinkedHashMap<String, List<Result>> results, int[] sizes) {
+        StringBuilder md = new StringBuilder("# Gitlet scaling report\n");
+        md.append("\n## Wall time (ms)\n\n");
+        header(md, sizes, "growth");
+        results.forEach((name, rows) -> {
+            md.append("| ").append(name).append(" |");
+            rows.forEach(r -> md.append(' ').append(r.millis)
+                    .append(r.failed ? " (failed)" : "").append(" |"));
+            md.append(' ').append(growth(rows)).append(" |\n");
+        });
+        md.append("\n## Bytes read / written (MiB)\n\n");
+        header(md, sizes, null);
+        results.forEach((name, rows) -> {
+            md.append("| ").append(name).append(" |");
+            rows.forEach(r -> md.append(' ').append(mebibytes(r.read)).append(" / ")
+                    .append(mebibytes(r.written)).append(" |"));
+            md.append('\n');
+        });
+        md.append("\n## Peak heap (MiB)\n\n");
+        header(md, sizes, null);
+        results.forEach((name, rows) -> {
+            md.append("| ").append(name).append(" |");
+            rows.forEach(r -> md.append(' ').append(mebibytes(r.heap)).append(" |"));
+            md.append('\n');
+        });
+        return md.toString();
+    }
+
+    /** Appends the header of a table with a column for each of SIZES, and
+     *  a last column LAST if it is not null, to MD. */
+    private static void header(StringBuilder md, int[] sizes, String last) {
+        md.append("| command |");
+        for (int size : sizes) {
+            md.append(' ').append(size).append(" commits |");
+        }
+        if (last != null) {
+            md.append(' ').append(last).append(" |");
+        }
+        md.append("\n|---|");
+        md.append("---:|".repeat(sizes.length + (last == null ? 0 : 1)));
+        md.append('\n');
+    }
+
+    /** Returns the exponent k for which the time in ROWS grows as size^k
+     *  between its last two sizes, marked if it is super-linear. */
+    private static String growth(List<Result> rows) {
+        if (rows.size() < 2) {
+            return "";
+        }
+        Result small = rows.get(rows.size() - 2);
+        Result large = rows.get(rows.size() - 1);
+        double k = Math.log(Math.max(large.millis, 1) / (double) Math.max(small.millis, 1))
+                / Math.log(large.size / (double) small.size);
+        String growth = String.format("%.2f", k);
+        if (k > SUPER_LINEAR && large.millis >= NOISE) {
+            growth += " super-linear";
+        }
+        return growth;
+    }
+
+    /** Returns BYTES in MiB to one decimal place, or "?" if it is not
+     *  known. */
+    private static String mebibytes(long bytes) {
+        return bytes < 0 ? "?" : String.format("%.1f", bytes / 1048576.0);
+    }
+}
@@ -0,0 +1,123 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/** A repository built in a temporary directory for a benchmark to run
+ *  commands against.  Its first commit tracks FILES files, spread over 32
+ *  directories; COMMITS commits follow on master, each changing one file.
+ *  Then branch side and master each get DEPTH more commits, side changing
+ *  odd-numbered files and master even-numbered ones, so that side merges
+ *  into master without conflicts.  master is checked out at the end.
+ *
+ *  Gitlet finds its repository through user.dir, which it reads once, so
+ *  the repository is made and user.dir pointed at it before any gitlet
+ *  class that uses it is loaded.  JMH runs each benchmark in a fresh JVM,
+ *  so each gets a repository of its own.  Command output is discarded.
+ *
+ *  @author alysa liu
+ */
+@State(Scope.Benchmark)
+public class SyntheticRepo {
+
+    /** The number of files in the first commit. */
+    @Param({"100", "10000"})
+    int files;
+    /** The number of commits on master after the first. */
+    @Param({"100", "1000"})
+    int commits;
+    /** The number of commits on each of master and side since they split. */
+    @Param({"10"})
+    int depth;
+
+    /** The directory of the repository. */
+    Path dir;
+    /** The id of the head of master once the repository is built. */
+    String masterHead;
+    /** Counts the changes made to files, so that each is new. */
+    private int changes;
+    /** Where System.out went before it was silenced. */
+    private PrintStream stdout;
+
+    /** Builds the repository. */
+    @Setup(Level.Trial)
+    public void build() throws IOException {
+        dir = Files.createTempDirectory("gitlet-bench-");
+        System.setProperty("user.dir", dir.toString());
+        stdout = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        run("init");
+        for (int i = 0; i < files; i += 1) {
+            write(i);
+        }
+        run("add", ".");
+        run("commit", "Add " + files + " files");
+        for (int i = 0; i < commits; i += 1) {
+            change(i % files);
+        }
+        run("branch", "side");
+        run("checkout", "side");
+        for (int i = 0; i < depth; i += 1) {
+            change((2 * i + 1) % files);
+        }
+        run("checkout", "master");
+        for (int i = 0; i < depth; i += 1) {
+            change((2 * i) % files);
+        }
+        masterHead = branch("master");
+    }
+
+    /** Removes the repository. */
+    @TearDown(Level.Trial)
+    public void remove() throws IOException {
+        System.setOut(stdout);
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    /** Runs the gitlet command ARGS in the repository. */
+    void run(String... args) {
+        Main.run(args);
+    }
+
+    /** Returns the path of file I, relative to the repository. */
+    String path(int i) {
+        return "dir" + (i % 32) + "/file" + i + ".txt";
+    }
+
+    /** Gives file I new contents, without staging it.  Returns its path. */
+    String write(int i) throws IOException {
+        changes += 1;
+        Path file = dir.resolve(path(i));
+        Files.createDirectories(file.getParent());
+        Files.writeString(file, "File " + i + ", change " + changes + ".\n"
+                + "The quick brown fox jumps over the lazy dog.\n".repeat(20));
+        return path(i);
+    }
+
+    /** Commits a change to file I. */
+    void change(int i) throws IOException {
+        run("add", write(i));
+        run("commit", "Change " + path(i));
+    }
+
+    /** Returns the id of the commit at the head of branch NAME. */
+    String branch(String name) {
+        return FileCache.read(Utils.join(Repository.GITLET_DIR, "branches"),
+                Codec::decodeMap).get(name);
+    }
+}
@@ -0,0 +1,233 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import static gitlet.Utils.*;
+
+/** The binary format of gitlet's objects and state files.  Every file
+ *  starts with a header of four bytes: the magic number "GL", the type of
+ *  object it holds, and the version of the format it was written in.
+ *  Numbers are written as varints, strings as a varint length followed by
+ *  UTF-8, and ids as 20 raw bytes.
+ *
+ *  Files written by Java serialization, as all of gitlet's files were
+ *  before this format, start with 0xACED instead; readers hand them to
+ *  Legacy.
+ *
+ *  @author alysa liu
+ */
+class Codec {
+
+    /** Type of a commit. */
+    static final int COMMIT = 1;
+    /** Type of a tree. */
+    static final int TREE = 2;
+    /** Type of a map from names to ids: branches and the staging area. */
+    static final int MAP = 3;
+    /** Type of the repository object. */
+    static final int REPOSITORY = 4;
+
+    /** The first two bytes of every file in this format. */
+    private static final int MAGIC = 0x474c;
+    /** The version of the format written. */
+    private static final int VERSION = 1;
+
+    /** Writes the body of an object to OUT. */
+    interface Body {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    /** Returns the header for an object of TYPE followed by what BODY
+     *  writes. */
+    static byte[] encode(int type, Body body) {
+        Buffer bytes = new Buffer();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeShort(MAGIC);
+            out.writeByte(type);
+            out.writeByte(VERSION);
+            body.write(out);
+        } catch (IOException excp) {
+            throw error("Cannot encode object: %s", excp.getMessage());
+        }
+        return bytes.toByteArray();
+    }
+
+    /** A growing array of bytes.  Unlike ByteArrayOutputStream, its
+     *  writes are not synchronized, which matters for the many small writes
+     *  of an encoding. */
+    private static class Buffer extends OutputStream {
+        /** The bytes written, followed by free space. */
+        private byte[] data = new byte[256];
+        /** The number of bytes written. */
+        private int count;
+
+        @Override
+        public void write(int b) {
+            if (count == data.length) {
+                data = Arrays.copyOf(data, data.length * 2);
+            }
+            data[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            if (count + len > data.length) {
+                data = Arrays.copyOf(data, Math.max(data.length * 2, count + len));
+            }
+            System.arraycopy(b, off, data, count, len);
+            count += len;
+        }
+
+        /** Returns the bytes written. */
+        byte[] toByteArray() {
+            return Arrays.copyOf(data, count);
+        }
+    }
+
+    /** Returns true iff DATA was written by Java serialization. */
+    static boolean isLegacy(byte[] data) {
+        return data.length >= 2 && (data[0] & 0xff) == 0xac && (data[1] & 0xff) == 0xed;
+    }
+
+    /** Returns a stream over the body of DATA, which must hold an object
+     *  of TYPE in a version of the format this reader understands. */
+    static DataInputStream open(byte[] data, int type) {
+        if (data.length < 4 || ((data[0] & 0xff) << 8 | (data[1] & 0xff)) != MAGIC
+                || data[2] != type) {
+            throw error("Not a gitlet object of the expected type.");
+        }
+        if (data[3] > VERSION) {
+            throw error("Object written by a newer version of gitlet (format %d).", data[3]);
+        }
+        return new DataInputStream(new ByteArrayInputStream(data, 4, data.length - 4));
+    }
+
+    /** Writes the non-negative VALUE to OUT, seven bits at a time. */
+    static void writeVarint(DataOutputStream out, long value) throws IOException {
+        while (value >= 0x80) {
+            out.writeByte((int) (value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    /** Reads a value written by writeVarint from IN. */
+    static long readVarint(DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0;; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7f) << shift;
+            if (b < 0x80) {
+                return value;
+            }
+        }
+    }
+
+    /** Writes S, which may be null, to OUT. */
+    static void writeString(DataOutputStream out, String s) throws IOException {
+        if (s == null) {
+            writeVarint(out, 0);
+            return;
+        }
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        writeVarint(out, bytes.length + 1);
+        out.write(bytes);
+    }
+
+    /** Reads a string, or null, written by writeString from IN. */
+    static String readString(DataInputStream in) throws IOException {
+        int length = (int) readVarint(in);
+        if (length == 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length - 1];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /** Writes the id ID, which may be null, to OUT. */
+    static void writeId(DataOutputStream out, String id) throws IOException {
+        if (id == null) {
+            out.writeByte(0);
+        } else {
+            out.writeByte(1);
+            out.write(IdIndex.toBytes(id));
+        }
+    }
+
+    /** Reads an id, or null, written by writeId from IN. */
+    static String readId(DataInputStream in) throws IOException {
+        if (in.readUnsignedByte() == 0) {
+            return null;
+        }
+        byte[] bytes = new byte[IdIndex.ID_BYTES];
+        in.readFully(bytes);
+        return IdIndex.toHex(bytes);
+    }
+
+    /** Writes MAP, which may be null and maps names to ids or null, to
+     *  OUT. */
+    static void writeMap(DataOutputStream out, Map<?, ?> map) throws IOException {
+        if (map == null) {
+            writeVarint(out, 0);
+            return;
+        }
+        writeVarint(out, map.size() + 1);
+        for (Map.Entry<?, ?> entry : map.entrySet()) {
+            writeString(out, (String) entry.getKey());
+            writeId(out, (String) entry.getValue());
+        }
+    }
+
+    /** Reads a map, or null, written by writeMap from IN. */
+    static HashMap<String, String> readMap(DataInputStream in) throws IOException {
+        int size = (int) readVarint(in);
+        if (size == 0) {
+            return null;
+        }
+        HashMap<String, String> map = new HashMap<>(size * 4 / 3 + 1);
+        for (int i = 1; i < size; i += 1) {
+            String key = readString(in);
+            map.put(key, readId(in));
+        }
+        return map;
+    }
+
+    /** Returns a copy of MAP, whose keys and values must be strings, or
+     *  null if MAP is null. */
+    static HashMap<String, String> strings(Map<?, ?> map) {
+        if (map == null) {
+            return null;
+        }
+        HashMap<String, String> result = new HashMap<>(map.size() * 4 / 3 + 1);
+        for (Map.Entry<?, ?> entry : map.entrySet()) {
+            result.put((String) entry.getKey(), (String) entry.getValue());
+        }
+        return result;
+    }
+
+    /** Returns the contents of a file holding MAP. */
+    static byte[] encodeMap(Map<?, ?> map) {
+        return encode(MAP, out -> writeMap(out, map));
+    }
+
+    /** Returns the map held in DATA, in this format or the legacy one. */
+    static HashMap<String, String> decodeMap(byte[] data) {
+        if (isLegacy(data)) {
+            return strings((Map<?, ?>) Legacy.read(data));
+        }
+        try {
+            return readMap(open(data, MAP));
+        } catch (IOException excp) {
+            throw error("Corrupt map: %s", excp.getMessage());
+        }
+    }
+}
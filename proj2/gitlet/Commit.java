@@ -1,12 +1,12 @@
 package gitlet;
 
-import java.io.Serializable;
+import java.io.DataInputStream;
+import java.io.IOException;
 import java.util.Date;
+import java.text.ParseException;
 import java.text.SimpleDateFormat;
-import java.io.File;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.Iterator;
 import static gitlet.Utils.*;
 
 /** Represents a gitlet commit object.
@@ -14,46 +14,115 @@ import static gitlet.Utils.*;
  *
  *  @author alysa liu
  */
-public class Commit implements Serializable {
+public class Commit {
     /** The message of this Commit. */
     private String message;
     /** The author of this Commit. */
     private String author;
     /** The timestamp of this Commit. */
     private String timeStamp;
-    /** The files tracked by this Commit. */
-    private HashMap trackedFiles;
+    /** The id of the root tree of the files tracked by this Commit. */
+    private String tree;
+    /** The blobs of the files tracked by this Commit, by path, or null
+     *  if they have not been read from the tree yet. */
+    private Map<String, String> trackedFiles;
     /** The parent of this Commit. */
     private String parent;
     /** The second parent of this Commit. */
     private String secondary;
-    /** The current working directory. */
-    private static final File CWD = new File(System.getProperty("user.dir"));
-    /** The directory of commits. */
-    private static final File COMMITS_DIR = join(CWD, ".gitlet", "commits");
+    /** The id of this Commit, or null if it has not been computed since
+     *  the last change. */
+    private String id;
+    /** The format of timestamps. */
+    private static final String DATE_FORMAT = "E MMM d HH:mm:ss y Z";
 
     public Commit(Date date, String message, String parent, String secondary) {
-        SimpleDateFormat dateFormatter = new SimpleDateFormat("E MMM d HH:mm:ss y Z");
+        SimpleDateFormat dateFormatter = new SimpleDateFormat(DATE_FORMAT);
         this.message = message;
         this.author = "WHOISTHEAUTHOR??";
         this.timeStamp = dateFormatter.format(date);
-        trackedFiles = new HashMap<String, String>();
+        this.tree = Tree.EMPTY;
         this.parent = parent;
         this.secondary = secondary;
         if (!date.equals(new Date(0))) {
-            Commit parentCommit = loadCommit(parent);
-            for (Object entry : parentCommit.trackedFiles.entrySet()) {
-                HashMap.Entry entryMap = (Map.Entry) entry;
-                trackedFiles.put(entryMap.getKey(), entryMap.getValue());
+            Commit parentCommit = Repository.loadCommit(parent);
+            this.tree = parentCommit.tree;
+        }
+    }
+
+    /** A Commit to be filled in by decode. */
+    private Commit() {
+    }
+
+    /** Returns the contents of the file that holds this Commit. */
+    byte[] encode() {
+        return Codec.encode(Codec.COMMIT, out -> {
+            Codec.writeId(out, id());
+            Codec.writeId(out, tree);
+            Codec.writeId(out, parent);
+            Codec.writeId(out, secondary);
+            Codec.writeString(out, timeStamp);
+            Codec.writeString(out, author);
+            Codec.writeString(out, message);
+        });
+    }
+
+    /** Returns the Commit held in DATA, the contents of the file of commit
+     *  ID.  A commit written by Java serialization keeps ID as its id, and
+     *  one from before commits had trees gets the id of a tree of its
+     *  tracked files; that tree is only saved by saveTrees, so reading a
+     *  commit never writes. */
+    static Commit decode(byte[] data, String id) {
+        Commit commit = new Commit();
+        if (Codec.isLegacy(data)) {
+            Legacy.Record record = (Legacy.Record) Legacy.read(data);
+            commit.id = id;
+            commit.message = record.string("message");
+            commit.author = record.string("author");
+            commit.timeStamp = record.string("timeStamp");
+            commit.parent = record.string("parent");
+            commit.secondary = record.string("secondary");
+            commit.tree = record.string("tree");
+            if (commit.tree == null) {
+                Map<String, String> tracked = record.map("trackedFiles");
+                commit.trackedFiles = tracked == null ? new HashMap<>() : tracked;
+                commit.tree = Tree.idOf(commit.trackedFiles);
+            }
+            return commit;
+        }
+        try {
+            DataInputStream in = Codec.open(data, Codec.COMMIT);
+            commit.id = Codec.readId(in);
+            commit.tree = Codec.readId(in);
+            commit.parent = Codec.readId(in);
+            commit.secondary = Codec.readId(in);
+            commit.timeStamp = Codec.readString(in);
+            commit.author = Codec.readString(in);
+            commit.message = Codec.readString(in);
+        } catch (IOException excp) {
+            throw error("Corrupt commit %s.", id);
+        }
+        return commit;
+    }
+
+    /** Returns the id of this Commit: the SHA-1 of its header, which lists
+     *  its root tree, its parents, its timestamp and its message.  The id
+     *  is kept with the commit, so a loaded commit never has to compute it
+     *  again. */
+    public String id() {
+        if (id == null) {
+            StringBuilder header = new StringBuilder();
+            header.append("tree ").append(tree).append("\n");
+            if (parent != null) {
+                header.append("parent ").append(parent).append("\n");
             }
             if (secondary != null) {
-                Commit secondaryCommit = loadCommit(secondary);
-                for (Object entry : secondaryCommit.trackedFiles.entrySet()) {
-                    HashMap.Entry entryMap = (Map.Entry) entry;
-                    trackedFiles.put(entryMap.getKey(), entryMap.getValue());
-                }
+                header.append("parent ").append(secondary).append("\n");
             }
+            header.append("date ").append(timeStamp).append("\n\n").append(message);
+            id = sha1("commit\n", header.toString());
         }
+        return id;
     }
 
     public String message() {
@@ -68,40 +137,77 @@ public class Commit implements Serializable {
         return timeStamp;
     }
 
-    public HashMap trackedFiles() {
+    /** Returns the time of this Commit in milliseconds since the epoch. */
+    public long time() {
+        try {
+            return new SimpleDateFormat(DATE_FORMAT).parse(timeStamp).getTime();
+        } catch (ParseException excp) {
+            throw error("Bad timestamp: %s", timeStamp);
+        }
+    }
+
+    /** Returns the blobs of all files tracked by this Commit, by path. */
+    public Map<String, String> trackedFiles() {
+        if (trackedFiles == null) {
+            HashMap<String, String> files = new HashMap<>();
+            Tree.flatten(tree, "", files);
+            trackedFiles = files;
+            if (id != null) {
+                ObjectCache.reweigh(ObjectCache.COMMIT, id, weight());
+            }
+        }
         return trackedFiles;
     }
 
-    public String parent() {
-        return parent;
+    /** Returns roughly how many bytes of memory this Commit takes,
+     *  including its list of tracked files once that has been read. */
+    long weight() {
+        long weight = 300 + 2L * message.length();
+        if (trackedFiles != null) {
+            weight += 200L * trackedFiles.size();
+        }
+        return weight;
     }
 
-    public void changeSecondary(String secondHash) {
-        this.secondary = secondHash;
+    /** Returns the blob of the file at PATH in this Commit, or null. */
+    public String blob(String path) {
+        if (trackedFiles != null) {
+            return trackedFiles.get(path);
+        }
+        return Tree.lookup(tree, path);
     }
 
-    public Commit loadCommit(String hash) {
-        File commitFile = join(COMMITS_DIR, hash);
-        return readObject(commitFile, Commit.class);
+    public String tree() {
+        return tree;
     }
 
-    public void loadTrackedFiles(String commitHash) {
-        File tfFile = join(COMMITS_DIR, commitHash + "tf");
-        trackedFiles = readObject(tfFile, HashMap.class);
+    public String parent() {
+        return parent;
     }
 
-    public void addToStagingArea(HashMap stage) {
-        for (Object entry : stage.entrySet()) {
-            HashMap.Entry entryMap = (Map.Entry) entry;
-            trackedFiles.put(entryMap.getKey(), entryMap.getValue());
-        }
+    public String secondary() {
+        return secondary;
     }
 
-    public void rmFromStagingArea(HashMap stage) {
-        Iterator iter = stage.entrySet().iterator();
-        while (iter.hasNext()) {
-            Map.Entry currElement = (Map.Entry) iter.next();
-            trackedFiles.remove(currElement.getKey());
+    /** Saves the trees of this Commit's files, which a commit read from
+     *  before commits had trees names but does not have. */
+    void saveTrees() {
+        Tree.update(Tree.EMPTY, trackedFiles());
+    }
+
+    /** Adds the files in ADDITIONS to this Commit and removes those in
+     *  REMOVALS.  Only the trees on the paths to those files are rewritten. */
+    public void applyStaging(HashMap additions, HashMap removals) {
+        HashMap<String, String> changes = new HashMap<>();
+        for (Object entry : removals.keySet()) {
+            changes.put((String) entry, null);
+        }
+        for (Object entry : additions.entrySet()) {
+            Map.Entry entryMap = (Map.Entry) entry;
+            changes.put((String) entryMap.getKey(), (String) entryMap.getValue());
         }
+        tree = Tree.update(tree, changes);
+        trackedFiles = null;
+        id = null;
     }
 }
@@ -0,0 +1,630 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+import static gitlet.Utils.*;
+
+/** The commit-graph, which records the shape of history so that ancestry
+ *  walks never have to read commit objects.  It is kept in two files.  The
+ *  base, after a header and a fanout table on the first byte of the commit
+ *  ids, holds the sorted ids, then one row per commit in the same order:
+ *  the rows of its first and second parents (or NONE), its generation
+ *  number (one more than the largest generation of its parents, 1 for a
+ *  root), and its time, and ends with a CRC-32 of all that.  New commits
+ *  are appended to the tail, each as its id, the ids of its parents (zero
+ *  for none), its generation and its time, so a commit costs one short
+ *  write.  The tail names the CRC of the base it extends, which makes it
+ *  stale as soon as the base is replaced; once it grows past an eighth of
+ *  the base it is folded into a new base.  The commits in the tail take
+ *  the rows after those of the base, in the order they were added.
+ *
+ *  @author alysa liu
+ */
+class CommitGraph {
+
+    /** The base commit-graph file. */
+    static final File GRAPH_FILE = join(Repository.GITLET_DIR, "commit-graph");
+    /** The commit-graph tail. */
+    static final File TAIL_FILE = join(Repository.GITLET_DIR, "commit-graph-tail");
+    /** Parent row of a commit without that parent. */
+    static final int NONE = -1;
+
+    /** Magic number at the start of the base. */
+    private static final int MAGIC = 0x47434732;
+    /** Magic number at the start of the tail. */
+    private static final int TAIL_MAGIC = 0x47435454;
+    /** Version of the tail format. */
+    private static final int TAIL_VERSION = 1;
+    /** Length of a row in bytes. */
+    private static final int ROW_BYTES = 4 + 4 + 4 + 8;
+    /** Length of the tail header: magic, version and the CRC of the base. */
+    private static final int TAIL_HEADER = 3 * 4;
+    /** Length of a tail record in bytes. */
+    private static final int TAIL_BYTES = 3 * IdIndex.ID_BYTES + 4 + 8;
+    /** Number of tail records past which the tail is folded into the base,
+     *  in addition to an eighth of the base. */
+    private static final int MIN_TAIL = 256;
+    /** Mark of a commit reached from the first commit of a merge-base search. */
+    private static final int FROM_FIRST = 1;
+    /** Mark of a commit reached from the second commit of a merge-base search. */
+    private static final int FROM_SECOND = 2;
+    /** Mark of a commit known to be an ancestor of a common ancestor. */
+    private static final int STALE = 4;
+
+    /** The graph as last read, or null. */
+    private static CommitGraph graph;
+
+    /** The stamps of the base and the tail when they were read. */
+    private final Object stamp, tailStamp;
+    /** The contents of the base. */
+    private final MappedByteBuffer data;
+    /** The ids of the commits in the base. */
+    private final IdIndex ids;
+    /** The contents of the tail, or null if it is missing or stale. */
+    private final MappedByteBuffer tail;
+    /** The number of whole records in the tail. */
+    private final int tailRecords;
+    /** The ids of the commits in the tail that are not in the base, by
+     *  row, or null until the tail is first used. */
+    private String[] tailIds;
+    /** The rows of the commits in TAILIDS. */
+    private HashMap<String, Integer> tailRows;
+    /** The parent rows, generations and times of the commits in TAILIDS. */
+    private int[] tailParents, tailSeconds, tailGenerations;
+    /** The times of the commits in TAILIDS. */
+    private long[] tailTimes;
+
+    /** The graph stored in GRAPH_FILE and TAIL_FILE. */
+    private CommitGraph() {
+        stamp = FileCache.stamp(GRAPH_FILE);
+        tailStamp = FileCache.stamp(TAIL_FILE);
+        data = map(GRAPH_FILE);
+        if (data.getInt(0) != MAGIC) {
+            throw error("Bad commit-graph.");
+        }
+        ids = new IdIndex(data);
+        MappedByteBuffer t = tailStamp == null ? null : map(TAIL_FILE);
+        if (t != null && t.capacity() >= TAIL_HEADER && (t.getInt(0) != TAIL_MAGIC
+                || t.getInt(4) != TAIL_VERSION)) {
+            throw error("Bad commit-graph tail.");
+        }
+        if (t == null || t.capacity() < TAIL_HEADER || t.getInt(8) != checksum()) {
+            tail = null;
+            tailRecords = 0;
+        } else {
+            tail = t;
+            tailRecords = (t.capacity() - TAIL_HEADER) / TAIL_BYTES;
+        }
+    }
+
+    /** Returns the commit-graph, building it from the commits directory
+     *  if the repository does not have one yet, and reading it again if
+     *  another process has changed it. */
+    static CommitGraph get() {
+        if (graph == null || !Objects.equals(graph.stamp, FileCache.stamp(GRAPH_FILE))
+                || !Objects.equals(graph.tailStamp, FileCache.stamp(TAIL_FILE))) {
+            graph = null;
+            if (!GRAPH_FILE.exists()) {
+                LockManager.exclusively(() -> {
+                    if (!GRAPH_FILE.exists()) {
+                        rebuild();
+                    }
+                });
+            }
+            graph = new CommitGraph();
+        }
+        return graph;
+    }
+
+    /** Returns the commit-graph, as get does, after checking that it holds
+     *  IDS, commits known to exist such as the heads of branches.  A graph
+     *  that lacks one is stale, and is rebuilt from the commits directory;
+     *  an error is thrown if the commit is still missing.  Null ids are
+     *  ignored. */
+    static CommitGraph with(String... ids) {
+        CommitGraph result = get();
+        for (String id : ids) {
+            if (id == null || result.row(id) != NONE) {
+                continue;
+            }
+            LockManager.exclusively(() -> {
+                if (get().row(id) == NONE) {
+                    rebuild();
+                }
+            });
+            result = get();
+            if (result.row(id) == NONE) {
+                throw error("Commit %s is missing from the commit-graph.", id);
+            }
+        }
+        return result;
+    }
+
+    /** Adds commit ID, with parents PARENT and SECONDARY (either of which
+     *  may be null) and time TIME, to the commit-graph by appending it to
+     *  the tail, and folds the tail into the base if it has grown too
+     *  long.  Only the base is searched for ID, so a commit added twice
+     *  may appear twice in the tail; the second record is ignored. */
+    static void add(String id, String parent, String secondary, long time) {
+        CommitGraph old = get();
+        if (old.ids.find(id) >= 0) {
+            return;
+        }
+        ByteBuffer record = ByteBuffer.allocate(TAIL_HEADER + TAIL_BYTES);
+        if (old.tail == null) {
+            record.putInt(TAIL_MAGIC).putInt(TAIL_VERSION).putInt(old.checksum());
+        }
+        record.put(IdIndex.toBytes(id));
+        record.put(parent == null ? new byte[IdIndex.ID_BYTES] : IdIndex.toBytes(parent));
+        record.put(secondary == null ? new byte[IdIndex.ID_BYTES] : IdIndex.toBytes(secondary));
+        record.putInt(1 + Math.max(old.generation(parent), old.generation(secondary)));
+        record.putLong(time);
+        record.flip();
+        long at = old.tail == null ? 0 : TAIL_HEADER + (long) old.tailRecords * TAIL_BYTES;
+        Journal.step();
+        try (FileChannel out = FileChannel.open(TAIL_FILE.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            out.truncate(at);
+            out.write(record, at);
+        } catch (IOException excp) {
+            throw error("Cannot write commit-graph: %s", excp.getMessage());
+        }
+        graph = null;
+        if (old.tailRecords + 1 > MIN_TAIL + old.ids.size() / 8) {
+            CommitGraph current = get();
+            BitSet all = new BitSet(current.size());
+            all.set(0, current.size());
+            current.write(all);
+        }
+    }
+
+    /** Returns the row of commit ID, or NONE if it is not in the graph. */
+    int row(String id) {
+        int row = ids.find(id);
+        if (row >= 0) {
+            return row;
+        }
+        loadTail();
+        return id == null ? NONE : tailRows.getOrDefault(id, NONE);
+    }
+
+    /** Returns the number of commits in the graph. */
+    int size() {
+        loadTail();
+        return ids.size() + tailIds.length;
+    }
+
+    /** Returns the id of the commit at ROW. */
+    String id(int row) {
+        if (row < ids.size()) {
+            return ids.id(row);
+        }
+        loadTail();
+        return tailIds[row - ids.size()];
+    }
+
+    /** Returns the ids of up to LIMIT commits whose ids start with
+     *  PREFIX, or none if PREFIX is empty. */
+    List<String> withPrefix(String prefix, int limit) {
+        List<String> result = new ArrayList<>();
+        int[] range = ids.prefixRange(prefix);
+        for (int row = range[0]; row < range[1] && result.size() < limit; row += 1) {
+            result.add(ids.id(row));
+        }
+        loadTail();
+        prefix = prefix.toLowerCase();
+        for (int i = 0; i < tailIds.length && result.size() < limit; i += 1) {
+            if (!prefix.isEmpty() && tailIds[i].startsWith(prefix)) {
+                result.add(tailIds[i]);
+            }
+        }
+        return result;
+    }
+
+    /** Returns the row of the first parent of the commit at ROW, or NONE. */
+    int parent(int row) {
+        if (row < ids.size()) {
+            return data.getInt(rowBase(row));
+        }
+        loadTail();
+        return tailParents[row - ids.size()];
+    }
+
+    /** Returns the row of the second parent of the commit at ROW, or NONE. */
+    int secondParent(int row) {
+        if (row < ids.size()) {
+            return data.getInt(rowBase(row) + 4);
+        }
+        loadTail();
+        return tailSeconds[row - ids.size()];
+    }
+
+    /** Returns the generation number of the commit at ROW. */
+    int generation(int row) {
+        if (row < ids.size()) {
+            return data.getInt(rowBase(row) + 8);
+        }
+        loadTail();
+        return tailGenerations[row - ids.size()];
+    }
+
+    /** Returns the time of the commit at ROW in milliseconds. */
+    long time(int row) {
+        if (row < ids.size()) {
+            return data.getLong(rowBase(row) + 12);
+        }
+        loadTail();
+        return tailTimes[row - ids.size()];
+    }
+
+    /** Returns the id of the first parent of commit ID, or null. */
+    String parent(String id) {
+        int row = row(id);
+        if (row == NONE || parent(row) == NONE) {
+            return null;
+        }
+        return id(parent(row));
+    }
+
+    /** Returns the best common ancestor of commits FIRST and SECOND, or
+     *  null if they have none.  Both sides are walked at once, over both
+     *  parents, highest generation first, so the walk stops soon after
+     *  the merge bases are found.  A parent always has a lower generation
+     *  than its children, so a commit is still queued whenever its marks
+     *  change.  Among several merge bases, the one with
+     *  the highest generation (then the latest) is returned. */
+    String mergeBase(String first, String second) {
+        int a = row(first);
+        int b = row(second);
+        if (a == NONE || b == NONE) {
+            return null;
+        }
+        if (a == b) {
+            return first;
+        }
+        HashMap<Integer, Integer> marks = new HashMap<>();
+        PriorityQueue<Integer> queue = new PriorityQueue<>(this::byGenerationDescending);
+        marks.put(a, FROM_FIRST);
+        marks.put(b, FROM_SECOND);
+        queue.add(a);
+        queue.add(b);
+        int live = 2;
+        int best = NONE;
+        while (live > 0) {
+            int row = queue.poll();
+            int mark = marks.get(row);
+            if ((mark & STALE) == 0) {
+                live -= 1;
+            }
+            if ((mark & (FROM_FIRST | FROM_SECOND)) == (FROM_FIRST | FROM_SECOND)
+                    && (mark & STALE) == 0) {
+                if (best == NONE || byGenerationDescending(row, best) < 0) {
+                    best = row;
+                }
+                mark |= STALE;
+            }
+            for (int p : new int[] {parent(row), secondParent(row)}) {
+                if (p == NONE) {
+                    continue;
+                }
+                Integer old = marks.get(p);
+                int oldMark = old == null ? 0 : old;
+                int newMark = oldMark | mark;
+                if (newMark == oldMark) {
+                    continue;
+                }
+                marks.put(p, newMark);
+                if (old == null) {
+                    queue.add(p);
+                    live += 1;
+                } else if ((oldMark & STALE) != 0) {
+                    continue;
+                }
+                if ((newMark & STALE) != 0) {
+                    live -= 1;
+                }
+            }
+        }
+        return best == NONE ? null : id(best);
+    }
+
+    /** Returns true iff commit ANCESTOR is DESCENDANT or one of its
+     *  ancestors.  Commits whose generation is no greater than ANCESTOR's
+     *  are not walked past. */
+    boolean isAncestor(String ancestor, String descendant) {
+        int target = row(ancestor);
+        int start = row(descendant);
+        if (target == NONE || start == NONE) {
+            return false;
+        }
+        int floor = generation(target);
+        HashSet<Integer> visited = new HashSet<>();
+        ArrayDeque<Integer> fringe = new ArrayDeque<>();
+        fringe.add(start);
+        visited.add(start);
+        while (!fringe.isEmpty()) {
+            int row = fringe.poll();
+            if (row == target) {
+                return true;
+            }
+            if (generation(row) <= floor) {
+                continue;
+            }
+            for (int p : new int[] {parent(row), secondParent(row)}) {
+                if (p != NONE && visited.add(p)) {
+                    fringe.add(p);
+                }
+            }
+        }
+        return false;
+    }
+
+    /** Returns the rows of commits IDS and of all their ancestors, over
+     *  both parents.  Ids not in the graph are ignored. */
+    BitSet reachable(Collection<String> ids) {
+        BitSet marked = new BitSet(size());
+        ArrayDeque<Integer> fringe = new ArrayDeque<>();
+        for (String id : ids) {
+            int row = row(id);
+            if (row != NONE && !marked.get(row)) {
+                marked.set(row);
+                fringe.push(row);
+            }
+        }
+        while (!fringe.isEmpty()) {
+            int row = fringe.pop();
+            for (int p : new int[] {parent(row), secondParent(row)}) {
+                if (p != NONE && !marked.get(p)) {
+                    marked.set(p);
+                    fringe.push(p);
+                }
+            }
+        }
+        return marked;
+    }
+
+    /** Rewrites the commit-graph to hold only the commits at the rows in
+     *  KEEP.  Parents that are not kept become NONE. */
+    static void retain(BitSet keep) {
+        get().write(keep);
+    }
+
+    /** Orders rows R1 and R2 by descending generation, then descending
+     *  time. */
+    private int byGenerationDescending(int r1, int r2) {
+        int cmp = Integer.compare(generation(r2), generation(r1));
+        if (cmp == 0) {
+            cmp = Long.compare(time(r2), time(r1));
+        }
+        return cmp;
+    }
+
+    /** Returns the offset of the row ROW in the base. */
+    private int rowBase(int row) {
+        return ids.end() + row * ROW_BYTES;
+    }
+
+    /** Returns the CRC of the base, stored at its end. */
+    private int checksum() {
+        return data.getInt(rowBase(ids.size()));
+    }
+
+    /** Returns the generation of commit ID, or 0 if ID is null or not in
+     *  the graph, without reading all of the tail: it is searched from its
+     *  end, where the parents of a new commit usually are. */
+    private int generation(String id) {
+        if (id == null) {
+            return 0;
+        }
+        int row = ids.find(id);
+        if (row >= 0) {
+            return generation(row);
+        }
+        byte[] key = IdIndex.toBytes(id);
+        byte[] found = new byte[IdIndex.ID_BYTES];
+        for (int i = tailRecords - 1; i >= 0; i -= 1) {
+            tail.get(tailBase(i), found);
+            if (Arrays.equals(found, key)) {
+                return tail.getInt(tailBase(i) + 3 * IdIndex.ID_BYTES);
+            }
+        }
+        return 0;
+    }
+
+    /** Returns the offset of tail record I in the tail. */
+    private static int tailBase(int i) {
+        return TAIL_HEADER + i * TAIL_BYTES;
+    }
+
+    /** Reads the commits in the tail that are not in the base, if that
+     *  has not been done yet. */
+    private void loadTail() {
+        if (tailIds != null) {
+            return;
+        }
+        int base = ids.size();
+        tailRows = new HashMap<>();
+        String[] found = new String[tailRecords];
+        int[] parents = new int[tailRecords];
+        int[] seconds = new int[tailRecords];
+        int[] generations = new int[tailRecords];
+        long[] times = new long[tailRecords];
+        int n = 0;
+        byte[] key = new byte[IdIndex.ID_BYTES];
+        for (int i = 0; i < tailRecords; i += 1) {
+            tail.get(tailBase(i), key);
+            String id = IdIndex.toHex(key);
+            if (ids.search(key) >= 0 || tailRows.containsKey(id)) {
+                continue;
+            }
+            found[n] = id;
+            parents[n] = tailParent(tailBase(i) + IdIndex.ID_BYTES);
+            seconds[n] = tailParent(tailBase(i) + 2 * IdIndex.ID_BYTES);
+            generations[n] = tail.getInt(tailBase(i) + 3 * IdIndex.ID_BYTES);
+            times[n] = tail.getLong(tailBase(i) + 3 * IdIndex.ID_BYTES + 4);
+            tailRows.put(id, base + n);
+            n += 1;
+        }
+        tailParents = Arrays.copyOf(parents, n);
+        tailSeconds = Arrays.copyOf(seconds, n);
+        tailGenerations = Arrays.copyOf(generations, n);
+        tailTimes = Arrays.copyOf(times, n);
+        tailIds = Arrays.copyOf(found, n);
+    }
+
+    /** Returns the row of the parent whose id is at offset AT in the tail,
+     *  or NONE if it is zero or not in the graph.  Only the base and the
+     *  tail records read so far are searched. */
+    private int tailParent(int at) {
+        byte[] key = new byte[IdIndex.ID_BYTES];
+        tail.get(at, key);
+        int row = ids.search(key);
+        if (row >= 0) {
+            return row;
+        }
+        for (byte b : key) {
+            if (b != 0) {
+                return tailRows.getOrDefault(IdIndex.toHex(key), NONE);
+            }
+        }
+        return NONE;
+    }
+
+    /** Writes the commits of this graph at the rows in KEEP, sorted by id,
+     *  to a new base, and deletes the tail.  Parents that are not kept
+     *  become NONE. */
+    private void write(BitSet keep) {
+        int n = keep.cardinality();
+        byte[][] keys = new byte[size()][];
+        Integer[] order = new Integer[n];
+        int to = 0;
+        for (int row = keep.nextSetBit(0); row >= 0; row = keep.nextSetBit(row + 1)) {
+            keys[row] = row < ids.size() ? ids.idBytes(row) : IdIndex.toBytes(id(row));
+            order[to++] = row;
+        }
+        Arrays.sort(order, (r1, r2) -> Arrays.compareUnsigned(keys[r1], keys[r2]));
+        int[] renumbered = new int[size()];
+        Arrays.fill(renumbered, NONE);
+        for (to = 0; to < n; to += 1) {
+            renumbered[order[to]] = to;
+        }
+        byte[][] sorted = new byte[n][];
+        int[] parents = new int[n];
+        int[] seconds = new int[n];
+        int[] generations = new int[n];
+        long[] times = new long[n];
+        for (to = 0; to < n; to += 1) {
+            int row = order[to];
+            sorted[to] = keys[row];
+            parents[to] = parent(row) == NONE ? NONE : renumbered[parent(row)];
+            seconds[to] = secondParent(row) == NONE ? NONE : renumbered[secondParent(row)];
+            generations[to] = generation(row);
+            times[to] = time(row);
+        }
+        write(sorted, parents, seconds, generations, times);
+    }
+
+    /** Writes the graph whose sorted ids are IDS and whose rows are given
+     *  by PARENTS, SECONDS, GENERATIONS and TIMES to GRAPH_FILE, and
+     *  deletes the tail, which the new base has made stale. */
+    private static void write(byte[][] ids, int[] parents, int[] seconds,
+                              int[] generations, long[] times) {
+        File tmp = Journal.tempFile(GRAPH_FILE);
+        CRC32 crc = new CRC32();
+        try (DataOutputStream out = new DataOutputStream(new CheckedOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmp)), crc))) {
+            IdIndex.write(out, MAGIC, ids);
+            for (int row = 0; row < ids.length; row += 1) {
+                out.writeInt(parents[row]);
+                out.writeInt(seconds[row]);
+                out.writeInt(generations[row]);
+                out.writeLong(times[row]);
+            }
+            out.writeInt((int) crc.getValue());
+        } catch (IOException excp) {
+            throw error("Cannot write commit-graph: %s", excp.getMessage());
+        }
+        Journal.step();
+        Journal.move(tmp, GRAPH_FILE);
+        Journal.step();
+        TAIL_FILE.delete();
+        graph = null;
+    }
+
+    /** Returns the contents of FILE, mapped. */
+    private static MappedByteBuffer map(File file) {
+        try (FileChannel channel = FileChannel.open(file.toPath())) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException excp) {
+            throw error("Cannot read commit-graph.");
+        }
+    }
+
+    /** Writes a commit-graph for every commit in the commits directory. */
+    static void rebuild() {
+        HashMap<String, Commit> commits = new HashMap<>();
+        for (String id : ObjectStore.COMMITS.ids()) {
+            commits.put(id, Repository.loadCommit(id));
+        }
+        String[] sorted = commits.keySet().toArray(new String[0]);
+        Arrays.sort(sorted);
+        HashMap<String, Integer> rows = new HashMap<>();
+        byte[][] ids = new byte[sorted.length][];
+        for (int row = 0; row < sorted.length; row += 1) {
+            rows.put(sorted[row], row);
+            ids[row] = IdIndex.toBytes(sorted[row]);
+        }
+        int[] parents = new int[sorted.length];
+        int[] seconds = new int[sorted.length];
+        int[] generations = new int[sorted.length];
+        long[] times = new long[sorted.length];
+        for (int row = 0; row < sorted.length; row += 1) {
+            Commit commit = commits.get(sorted[row]);
+            parents[row] = rows.getOrDefault(commit.parent(), NONE);
+            seconds[row] = rows.getOrDefault(commit.secondary(), NONE);
+            times[row] = commit.time();
+        }
+        for (int row = 0; row < sorted.length; row += 1) {
+            ArrayDeque<Integer> stack = new ArrayDeque<>();
+            stack.push(row);
+            while (!stack.isEmpty()) {
+                int r = stack.peek();
+                if (generations[r] != 0) {
+                    stack.pop();
+                    continue;
+                }
+                int p = parents[r];
+                int s = seconds[r];
+                if (p != NONE && generations[p] == 0) {
+                    stack.push(p);
+                } else if (s != NONE && generations[s] == 0) {
+                    stack.push(s);
+                } else {
+                    generations[r] = 1 + Math.max(p == NONE ? 0 : generations[p],
+                                                  s == NONE ? 0 : generations[s]);
+                    stack.pop();
+                }
+            }
+        }
+        write(ids, parents, seconds, generations, times);
+    }
+}
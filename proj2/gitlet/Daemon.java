@@ -0,0 +1,224 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import static gitlet.Utils.*;
+
+/** A long-running gitlet process that serves the commands of one
+ *  repository over a Unix domain socket in its .gitlet directory, so that
+ *  each command costs neither a JVM start nor a fresh read of the
+ *  repository's state.  Commands are run one at a time, in the order they
+ *  arrive.
+ *
+ *  A client sends the number of arguments followed by each argument, then
+ *  the number of the ENVIRONMENT variables it has set followed by the
+ *  name and value of each, so that tracing and crash points follow the
+ *  client rather than the daemon; a command halted by GITLET_CRASH_AT
+ *  halts the daemon, as it would the process running it.  The daemon
+ *  answers with frames, each a kind byte followed by data: OUT and
+ *  ERR frames carry a length and that many bytes of standard output or
+ *  error, and an EXIT frame carries the exit status and ends the answer.
+ *
+ *  @author alysa liu
+ */
+class Daemon {
+
+    /** The socket the daemon listens on. */
+    static final File SOCKET = join(Repository.GITLET_DIR, "daemon.sock");
+
+    /** Frame kind for the end of a command, with its exit status. */
+    private static final int EXIT = 0;
+    /** Frame kind for standard output. */
+    private static final int OUT = 1;
+    /** Frame kind for standard error. */
+    private static final int ERR = 2;
+    /** Size of the output buffers, and so the largest frame. */
+    private static final int BUFFER = 1 << 16;
+
+    /** The environment variables a client passes on to the daemon. */
+    private static final List<String> ENVIRONMENT = List.of("GITLET_TRACE", "GITLET_STATS",
+            "GITLET_CACHE_STATS", "GITLET_CRASH_AT");
+
+    /** False once the daemon has been asked to stop. */
+    private static boolean running = true;
+
+    /** Runs ARGS in the daemon for this repository, if one is running,
+     *  copying its output to this process's output.  Returns false, having
+     *  done nothing, if there is no daemon or the GITLET_NO_DAEMON
+     *  environment variable is set. */
+    static boolean forward(String[] args) {
+        if (System.getenv("GITLET_NO_DAEMON") != null || !SOCKET.exists()) {
+            return false;
+        }
+        SocketChannel channel;
+        try {
+            channel = SocketChannel.open(UnixDomainSocketAddress.of(SOCKET.toPath()));
+        } catch (IOException excp) {
+            return false;
+        }
+        int status;
+        try (channel) {
+            DataOutputStream request = new DataOutputStream(
+                    new BufferedOutputStream(Channels.newOutputStream(channel)));
+            request.writeInt(args.length);
+            for (String arg : args) {
+                request.writeUTF(arg);
+            }
+            Map<String, String> env = new HashMap<>();
+            for (String name : ENVIRONMENT) {
+                if (System.getenv(name) != null) {
+                    env.put(name, System.getenv(name));
+                }
+            }
+            request.writeInt(env.size());
+            for (Map.Entry<String, String> variable : env.entrySet()) {
+                request.writeUTF(variable.getKey());
+                request.writeUTF(variable.getValue());
+            }
+            request.flush();
+            DataInputStream answer = new DataInputStream(
+                    new BufferedInputStream(Channels.newInputStream(channel), BUFFER));
+            int kind;
+            while ((kind = answer.readUnsignedByte()) != EXIT) {
+                byte[] data = answer.readNBytes(answer.readInt());
+                (kind == ERR ? System.err : System.out).write(data, 0, data.length);
+            }
+            status = answer.readInt();
+        } catch (IOException excp) {
+            if (System.getenv("GITLET_CRASH_AT") != null) {
+                // The daemon halted at the crash point, as this process would have.
+                System.exit(Journal.CRASHED);
+            }
+            throw error("Lost connection to the gitlet daemon.");
+        }
+        System.out.flush();
+        System.err.flush();
+        if (status != 0) {
+            System.exit(status);
+        }
+        return true;
+    }
+
+    /** Listens on SOCKET and runs the commands sent to it until told to
+     *  stop. */
+    static void serve() {
+        SOCKET.delete();
+        try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            server.bind(UnixDomainSocketAddress.of(SOCKET.toPath()));
+            message("Gitlet daemon listening on %s.", SOCKET.getPath());
+            System.out.flush();
+            while (running) {
+                try (SocketChannel client = server.accept()) {
+                    handle(client);
+                } catch (IOException excp) {
+                    System.err.println("gitlet daemon: " + excp.getMessage());
+                }
+            }
+        } catch (IOException excp) {
+            throw error("Cannot start the gitlet daemon: %s", excp.getMessage());
+        } finally {
+            SOCKET.delete();
+        }
+    }
+
+    /** Reads one command from CLIENT, runs it with its output sent back
+     *  to CLIENT, and ends the answer with the command's exit status. */
+    private static void handle(SocketChannel client) throws IOException {
+        DataInputStream request = new DataInputStream(
+                new BufferedInputStream(Channels.newInputStream(client)));
+        String[] args = new String[request.readInt()];
+        for (int i = 0; i < args.length; i += 1) {
+            args[i] = request.readUTF();
+        }
+        HashMap<String, String> env = new HashMap<>();
+        for (int n = request.readInt(); n > 0; n -= 1) {
+            String name = request.readUTF();
+            env.put(name, request.readUTF());
+        }
+
+        DataOutputStream answer = new DataOutputStream(Channels.newOutputStream(client));
+        PrintStream out = new PrintStream(
+                new BufferedOutputStream(new FrameStream(answer, OUT), BUFFER));
+        PrintStream err = new PrintStream(
+                new BufferedOutputStream(new FrameStream(answer, ERR), BUFFER));
+        PrintStream stdout = System.out;
+        PrintStream stderr = System.err;
+        System.setOut(out);
+        System.setErr(err);
+        int status = 0;
+        try {
+            if (args.length > 0 && args[0].equals("daemon")) {
+                if (args.length > 1 && args[1].equals("stop")) {
+                    running = false;
+                    System.out.println("Gitlet daemon stopped.");
+                } else {
+                    System.out.println("A gitlet daemon is already running.");
+                }
+            } else {
+                Main.run(args, env);
+            }
+        } catch (RuntimeException excp) {
+            Journal.abort();
+            FileCache.clear();
+            excp.printStackTrace();
+            status = 1;
+        } finally {
+            out.flush();
+            err.flush();
+            System.setOut(stdout);
+            System.setErr(stderr);
+        }
+        answer.writeByte(EXIT);
+        answer.writeInt(status);
+        answer.flush();
+    }
+
+    /** An output stream that sends everything written to it as frames of
+     *  one kind. */
+    private static class FrameStream extends OutputStream {
+        /** The stream the frames are written to. */
+        private final DataOutputStream out;
+        /** The kind of the frames. */
+        private final int kind;
+
+        /** A stream sending frames of KIND to OUT. */
+        FrameStream(DataOutputStream out, int kind) {
+            this.out = out;
+            this.kind = kind;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return;
+            }
+            out.writeByte(kind);
+            out.writeInt(len);
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+    }
+}
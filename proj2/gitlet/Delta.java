@@ -0,0 +1,139 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.util.HashMap;
+
+/** Copy/insert delta encoding used for packed blobs.
+ *  A delta starts with the base and result lengths as varints, followed
+ *  by instructions.  An instruction byte with its high bit set is a copy,
+ *  followed by a varint offset into the base and a varint length; any
+ *  other non-zero instruction byte N is followed by N literal bytes.
+ *
+ *  @author alysa liu
+ */
+class Delta {
+
+    /** Length of the blocks of the base that are indexed for matching. */
+    private static final int BLOCK = 16;
+    /** Largest number of literal bytes in one insert instruction. */
+    private static final int MAX_INSERT = 0x7f;
+    /** Instruction byte for a copy. */
+    private static final int COPY = 0x80;
+
+    /** Returns a delta that rebuilds TARGET from BASE. */
+    static byte[] encode(byte[] base, byte[] target) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(target.length / 4 + 16);
+        writeVarint(out, base.length);
+        writeVarint(out, target.length);
+
+        HashMap<Integer, Integer> blocks = new HashMap<>();
+        for (int i = 0; i + BLOCK <= base.length; i += BLOCK) {
+            blocks.putIfAbsent(hash(base, i), i);
+        }
+
+        ByteArrayOutputStream pending = new ByteArrayOutputStream();
+        int i = 0;
+        while (i < target.length) {
+            Integer start = i + BLOCK <= target.length ? blocks.get(hash(target, i)) : null;
+            if (start == null || !matches(base, start, target, i, BLOCK)) {
+                pending.write(target[i]);
+                i += 1;
+                continue;
+            }
+            int from = start;
+            int len = BLOCK;
+            while (from + len < base.length && i + len < target.length
+                    && base[from + len] == target[i + len]) {
+                len += 1;
+            }
+            flushInsert(out, pending);
+            out.write(COPY);
+            writeVarint(out, from);
+            writeVarint(out, len);
+            i += len;
+        }
+        flushInsert(out, pending);
+        return out.toByteArray();
+    }
+
+    /** Returns the result of applying DELTA to BASE. */
+    static byte[] apply(byte[] base, byte[] delta) {
+        int[] pos = {0};
+        int baseLength = readVarint(delta, pos);
+        int resultLength = readVarint(delta, pos);
+        if (baseLength != base.length) {
+            throw Utils.error("Delta does not match its base.");
+        }
+        byte[] result = new byte[resultLength];
+        int out = 0;
+        while (pos[0] < delta.length) {
+            int op = delta[pos[0]++] & 0xff;
+            if (op == COPY) {
+                int from = readVarint(delta, pos);
+                int len = readVarint(delta, pos);
+                System.arraycopy(base, from, result, out, len);
+                out += len;
+            } else {
+                System.arraycopy(delta, pos[0], result, out, op);
+                pos[0] += op;
+                out += op;
+            }
+        }
+        if (out != resultLength) {
+            throw Utils.error("Corrupt delta.");
+        }
+        return result;
+    }
+
+    /** Writes the bytes in PENDING to OUT as insert instructions. */
+    private static void flushInsert(ByteArrayOutputStream out, ByteArrayOutputStream pending) {
+        byte[] bytes = pending.toByteArray();
+        for (int i = 0; i < bytes.length; i += MAX_INSERT) {
+            int n = Math.min(MAX_INSERT, bytes.length - i);
+            out.write(n);
+            out.write(bytes, i, n);
+        }
+        pending.reset();
+    }
+
+    /** Returns true iff the LEN bytes of A at I equal those of B at J. */
+    private static boolean matches(byte[] a, int i, byte[] b, int j, int len) {
+        for (int k = 0; k < len; k += 1) {
+            if (a[i + k] != b[j + k]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Returns a hash of the BLOCK bytes of DATA starting at START. */
+    private static int hash(byte[] data, int start) {
+        int h = 0;
+        for (int k = start; k < start + BLOCK; k += 1) {
+            h = 31 * h + data[k];
+        }
+        return h;
+    }
+
+    /** Writes the non-negative VALUE to OUT as a little-endian base-128 varint. */
+    private static void writeVarint(ByteArrayOutputStream out, int value) {
+        while (value >= COPY) {
+            out.write((value & 0x7f) | COPY);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    /** Reads a varint from DATA at POS[0], advancing POS[0] past it. */
+    private static int readVarint(byte[] data, int[] pos) {
+        int value = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = data[pos[0]++] & 0xff;
+            value |= (b & 0x7f) << shift;
+            shift += 7;
+        } while ((b & COPY) != 0);
+        return value;
+    }
+}
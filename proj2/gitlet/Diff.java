@@ -0,0 +1,475 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/** Line diffs.  Files are split into lines, and each distinct line is
+ *  given a small int by an Interner, so that lines are compared as ints
+ *  and each line is hashed only once however often it is compared.
+ *
+ *  The diff is a histogram diff: after the common head and tail of a
+ *  region are set aside, the line of the new version that occurs least
+ *  often (and at most MAX_CHAIN times) in the old is matched and extended
+ *  to the longest run of equal lines around it, and the regions before and
+ *  after that run are diffed the same way.  A region with no such line is
+ *  diffed by Myers' algorithm instead, in linear space, unless it is so
+ *  large that the whole region is taken to be replaced.  Regions are kept
+ *  on a stack rather than recursed into, so long files cannot overflow
+ *  the Java stack.  The edits found may be printed as a unified diff.
+ *
+ *  @author alysa liu
+ */
+class Diff {
+
+    /** Lines occurring more often than this in a region are not used to
+     *  split it. */
+    private static final int MAX_CHAIN = 64;
+    /** Regions larger than this, in lines of one version times lines of
+     *  the other, are not diffed by Myers' algorithm. */
+    private static final long MYERS_LIMIT = 1L << 26;
+    /** The number of unchanged lines shown around each change in a
+     *  unified diff. */
+    static final int CONTEXT = 3;
+    /** The number of bytes at the start of a file searched for a zero
+     *  byte, which marks it as binary. */
+    private static final int BINARY_PROBE = 8000;
+
+    /** Lines [aStart, aEnd) of the old version replaced by lines
+     *  [bStart, bEnd) of the new.  Either range may be empty. */
+    static class Edit {
+        /** The range of old lines. */
+        final int aStart, aEnd;
+        /** The range of new lines. */
+        final int bStart, bEnd;
+
+        Edit(int aStart, int aEnd, int bStart, int bEnd) {
+            this.aStart = aStart;
+            this.aEnd = aEnd;
+            this.bStart = bStart;
+            this.bEnd = bEnd;
+        }
+    }
+
+    /** The lines of a file.  Each line includes its newline, except
+     *  perhaps the last. */
+    static class Lines {
+        /** The contents of the file. */
+        final byte[] data;
+        /** The offset of each line in DATA, then DATA's length. */
+        private final int[] starts;
+
+        Lines(byte[] data) {
+            this.data = data;
+            int count = 0;
+            for (byte b : data) {
+                if (b == '\n') {
+                    count += 1;
+                }
+            }
+            boolean partial = data.length > 0 && data[data.length - 1] != '\n';
+            starts = new int[count + (partial ? 2 : 1)];
+            int line = 1;
+            for (int i = 0; i < data.length; i += 1) {
+                if (data[i] == '\n' && i + 1 < data.length) {
+                    starts[line] = i + 1;
+                    line += 1;
+                }
+            }
+            starts[starts.length - 1] = data.length;
+        }
+
+        /** Returns the number of lines. */
+        int size() {
+            return starts.length - 1;
+        }
+
+        /** Returns the offset of line I. */
+        int start(int i) {
+            return starts[i];
+        }
+
+        /** Returns the offset just past line I. */
+        int end(int i) {
+            return starts[i + 1];
+        }
+
+        /** Returns true iff the last line ends with a newline. */
+        boolean endsWithNewline() {
+            return data.length == 0 || data[data.length - 1] == '\n';
+        }
+
+        /** Writes lines [FROM, TO) to OUT. */
+        void write(ByteArrayOutputStream out, int from, int to) {
+            if (from < to) {
+                out.write(data, starts[from], starts[to] - starts[from]);
+            }
+        }
+    }
+
+    /** Gives each distinct line a number, the same for equal lines of any
+     *  of the files it has seen.  Lines are kept in an open-addressed hash
+     *  table of ints, which points back into the files rather than copying
+     *  the lines. */
+    static class Interner {
+        /** The number of each line in the table plus one, or zero for an
+         *  empty slot. */
+        private int[] table = new int[1024];
+        /** The hash of each numbered line. */
+        private int[] hashes = new int[256];
+        /** The file and line each number was first given to. */
+        private Lines[] owners = new Lines[256];
+        private int[] lines = new int[256];
+        /** The number of distinct lines seen. */
+        private int size;
+
+        /** Returns the number of each line of LINES. */
+        int[] intern(Lines lines) {
+            int[] ids = new int[lines.size()];
+            for (int i = 0; i < ids.length; i += 1) {
+                ids[i] = intern(lines, i);
+            }
+            return ids;
+        }
+
+        /** Returns the number of distinct lines seen. */
+        int size() {
+            return size;
+        }
+
+        /** Returns the number of line I of FILE. */
+        private int intern(Lines file, int i) {
+            int from = file.start(i), to = file.end(i);
+            int hash = 1;
+            for (int k = from; k < to; k += 1) {
+                hash = 31 * hash + file.data[k];
+            }
+            hash ^= hash >>> 16;
+            int mask = table.length - 1;
+            for (int slot = hash & mask;; slot = (slot + 1) & mask) {
+                int id = table[slot] - 1;
+                if (id < 0) {
+                    return add(slot, hash, file, i);
+                }
+                Lines owner = owners[id];
+                int line = lines[id];
+                if (hashes[id] == hash && Arrays.equals(owner.data, owner.start(line),
+                        owner.end(line), file.data, from, to)) {
+                    return id;
+                }
+            }
+        }
+
+        /** Numbers line I of FILE, whose hash is HASH, putting it in SLOT. */
+        private int add(int slot, int hash, Lines file, int i) {
+            int id = size;
+            size += 1;
+            if (id == hashes.length) {
+                hashes = Arrays.copyOf(hashes, id * 2);
+                owners = Arrays.copyOf(owners, id * 2);
+                lines = Arrays.copyOf(lines, id * 2);
+            }
+            hashes[id] = hash;
+            owners[id] = file;
+            lines[id] = i;
+            table[slot] = id + 1;
+            if (size * 2 > table.length) {
+                int[] old = table;
+                table = new int[old.length * 2];
+                int mask = table.length - 1;
+                for (int entry : old) {
+                    if (entry != 0) {
+                        int s = hashes[entry - 1] & mask;
+                        while (table[s] != 0) {
+                            s = (s + 1) & mask;
+                        }
+                        table[s] = entry;
+                    }
+                }
+            }
+            return id;
+        }
+    }
+
+    /** The lines being diffed, as numbered by an Interner. */
+    private final int[] a, b;
+    /** The number of times each line occurs in the old region being
+     *  split, and the last place it occurs there. */
+    private final int[] count, last;
+    /** The place before each old line where the same line occurs, within
+     *  the region being split. */
+    private final int[] previous;
+    /** Regions waiting to be diffed, four ints each, negated old start
+     *  for those to be diffed by Myers' algorithm. */
+    private final ArrayDeque<int[]> regions = new ArrayDeque<>();
+    /** Runs of equal lines found so far, as old start, new start and
+     *  length. */
+    private int[] matches = new int[48];
+    private int matched;
+
+    private Diff(int[] a, int[] b, int distinct) {
+        this.a = a;
+        this.b = b;
+        count = new int[distinct];
+        last = new int[distinct];
+        previous = new int[a.length];
+    }
+
+    /** Returns the edits that turn the lines A into the lines B, in order,
+     *  where both are numbered by an Interner that has seen DISTINCT
+     *  lines. */
+    static List<Edit> diff(int[] a, int[] b, int distinct) {
+        Diff diff = new Diff(a, b, distinct);
+        diff.regions.push(new int[] {0, a.length, 0, b.length});
+        while (!diff.regions.isEmpty()) {
+            diff.split(diff.regions.pop());
+        }
+        return diff.edits();
+    }
+
+    /** Returns the edits that turn OLD into NEW. */
+    static List<Edit> diff(Lines old, Lines now) {
+        Interner interner = new Interner();
+        int[] a = interner.intern(old);
+        int[] b = interner.intern(now);
+        return diff(a, b, interner.size());
+    }
+
+    /** Finds the equal runs in REGION, pushing what is left of it to be
+     *  diffed in turn. */
+    private void split(int[] region) {
+        boolean myers = region[0] < 0;
+        int aLo = myers ? -region[0] - 1 : region[0], aHi = region[1];
+        int bLo = region[2], bHi = region[3];
+        int head = 0;
+        while (aLo + head < aHi && bLo + head < bHi && a[aLo + head] == b[bLo + head]) {
+            head += 1;
+        }
+        match(aLo, bLo, head);
+        aLo += head;
+        bLo += head;
+        int tail = 0;
+        while (aHi - tail > aLo && bHi - tail > bLo && a[aHi - tail - 1] == b[bHi - tail - 1]) {
+            tail += 1;
+        }
+        aHi -= tail;
+        bHi -= tail;
+        match(aHi, bHi, tail);
+        if (aLo == aHi || bLo == bHi) {
+            return;
+        }
+        if (!myers && anchor(aLo, aHi, bLo, bHi)) {
+            return;
+        }
+        if ((long) (aHi - aLo) * (bHi - bLo) <= MYERS_LIMIT) {
+            snake(aLo, aHi, bLo, bHi);
+        }
+    }
+
+    /** Splits old lines [ALO, AHI) and new lines [BLO, BHI) around their
+     *  longest run of equal lines that starts with a line rare in the old
+     *  region.  Returns false if there is no such line. */
+    private boolean anchor(int aLo, int aHi, int bLo, int bHi) {
+        for (int i = aLo; i < aHi; i += 1) {
+            int line = a[i];
+            previous[i] = count[line] == 0 ? -1 : last[line];
+            last[line] = i;
+            count[line] += 1;
+        }
+        int bestCount = MAX_CHAIN, bestA = -1, bestB = -1, bestLength = 0;
+        for (int j = bLo; j < bHi;) {
+            int next = j + 1;
+            int occurs = count[b[j]];
+            if (occurs > 0 && occurs <= bestCount) {
+                for (int i = last[b[j]]; i >= aLo; i = previous[i]) {
+                    int start = 0;
+                    while (i - start > aLo && j - start > bLo
+                            && a[i - start - 1] == b[j - start - 1]) {
+                        start += 1;
+                    }
+                    int end = 1;
+                    while (i + end < aHi && j + end < bHi && a[i + end] == b[j + end]) {
+                        end += 1;
+                    }
+                    int length = start + end;
+                    if (occurs < bestCount || length > bestLength) {
+                        bestCount = occurs;
+                        bestA = i - start;
+                        bestB = j - start;
+                        bestLength = length;
+                    }
+                    next = Math.max(next, j + end);
+                }
+            }
+            j = next;
+        }
+        for (int i = aLo; i < aHi; i += 1) {
+            count[a[i]] = 0;
+        }
+        if (bestA < 0) {
+            return false;
+        }
+        match(bestA, bestB, bestLength);
+        regions.push(new int[] {bestA + bestLength, aHi, bestB + bestLength, bHi});
+        regions.push(new int[] {aLo, bestA, bLo, bestB});
+        return true;
+    }
+
+    /** Splits old lines [ALO, AHI) and new lines [BLO, BHI), which differ
+     *  in their first and last lines, around the middle snake of Myers'
+     *  algorithm: the run of equal lines, perhaps empty, halfway along a
+     *  shortest edit script. */
+    private void snake(int aLo, int aHi, int bLo, int bHi) {
+        int n = aHi - aLo, m = bHi - bLo, delta = n - m;
+        boolean odd = (delta & 1) != 0;
+        int max = (n + m + 1) / 2;
+        int offset = max + 1;
+        int[] forward = new int[2 * max + 3];
+        int[] backward = new int[2 * max + 3];
+        for (int d = 0; d <= max; d += 1) {
+            for (int k = -d; k <= d; k += 2) {
+                int x = k == -d || k != d && forward[offset + k - 1] < forward[offset + k + 1]
+                        ? forward[offset + k + 1] : forward[offset + k - 1] + 1;
+                int y = x - k, x0 = x, y0 = y;
+                while (x < n && y < m && a[aLo + x] == b[bLo + y]) {
+                    x += 1;
+                    y += 1;
+                }
+                forward[offset + k] = x;
+                int r = delta - k;
+                if (odd && r >= -(d - 1) && r <= d - 1 && x + backward[offset + r] >= n) {
+                    divide(aLo, aHi, bLo, bHi, x0, y0, x);
+                    return;
+                }
+            }
+            for (int k = -d; k <= d; k += 2) {
+                int x = k == -d || k != d && backward[offset + k - 1] < backward[offset + k + 1]
+                        ? backward[offset + k + 1] : backward[offset + k - 1] + 1;
+                int y = x - k, x0 = x;
+                while (x < n && y < m && a[aHi - 1 - x] == b[bHi - 1 - y]) {
+                    x += 1;
+                    y += 1;
+                }
+                backward[offset + k] = x;
+                int r = delta - k;
+                if (!odd && r >= -d && r <= d && x + forward[offset + r] >= n) {
+                    divide(aLo, aHi, bLo, bHi, n - x, m - y, n - x0);
+                    return;
+                }
+            }
+        }
+    }
+
+    /** Records the snake from old line ALO + X, new line BLO + Y, to old
+     *  line ALO + U, and pushes the regions on either side of it. */
+    private void divide(int aLo, int aHi, int bLo, int bHi, int x, int y, int u) {
+        match(aLo + x, bLo + y, u - x);
+        regions.push(new int[] {-(aLo + u) - 1, aHi, bLo + y + u - x, bHi});
+        regions.push(new int[] {-aLo - 1, aLo + x, bLo, bLo + y});
+    }
+
+    /** Records that LENGTH old lines from AT equal the new lines from
+     *  BT. */
+    private void match(int at, int bt, int length) {
+        if (length == 0) {
+            return;
+        }
+        if (matched + 3 > matches.length) {
+            matches = Arrays.copyOf(matches, matches.length * 2);
+        }
+        matches[matched] = at;
+        matches[matched + 1] = bt;
+        matches[matched + 2] = length;
+        matched += 3;
+    }
+
+    /** Returns the edits between the runs of equal lines, in order. */
+    private List<Edit> edits() {
+        int runs = matched / 3;
+        Integer[] order = new Integer[runs];
+        for (int r = 0; r < runs; r += 1) {
+            order[r] = r;
+        }
+        Arrays.sort(order, (r, s) -> Integer.compare(matches[3 * r], matches[3 * s]));
+        List<Edit> edits = new ArrayList<>();
+        int i = 0, j = 0;
+        for (int r : order) {
+            int at = matches[3 * r], bt = matches[3 * r + 1];
+            if (at > i || bt > j) {
+                edits.add(new Edit(i, at, j, bt));
+            }
+            i = at + matches[3 * r + 2];
+            j = bt + matches[3 * r + 2];
+        }
+        if (i < a.length || j < b.length) {
+            edits.add(new Edit(i, a.length, j, b.length));
+        }
+        return edits;
+    }
+
+    /** Returns true iff DATA looks like the contents of a binary file:
+     *  one with a zero byte near its start. */
+    static boolean binary(byte[] data) {
+        for (int i = 0; i < Math.min(data.length, BINARY_PROBE); i += 1) {
+            if (data[i] == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Appends EDITS, which turn OLD into NOW, to OUT as the hunks of a
+     *  unified diff, with CONTEXT unchanged lines around each change.
+     *  Changes no more than twice CONTEXT lines apart share a hunk. */
+    static void unified(StringBuilder out, Lines old, Lines now, List<Edit> edits,
+                        int context) {
+        for (int e = 0; e < edits.size();) {
+            int last = e;
+            while (last + 1 < edits.size()
+                    && edits.get(last + 1).aStart - edits.get(last).aEnd <= 2 * context) {
+                last += 1;
+            }
+            Edit first = edits.get(e), end = edits.get(last);
+            int aLo = Math.max(0, first.aStart - context);
+            int aHi = Math.min(old.size(), end.aEnd + context);
+            int bLo = first.bStart - (first.aStart - aLo);
+            int bHi = end.bEnd + (aHi - end.aEnd);
+            out.append("@@ -").append(range(aLo, aHi - aLo)).append(" +")
+                    .append(range(bLo, bHi - bLo)).append(" @@\n");
+            int i = aLo;
+            for (Edit edit : edits.subList(e, last + 1)) {
+                lines(out, ' ', old, i, edit.aStart);
+                lines(out, '-', old, edit.aStart, edit.aEnd);
+                lines(out, '+', now, edit.bStart, edit.bEnd);
+                i = edit.aEnd;
+            }
+            lines(out, ' ', old, i, aHi);
+            e = last + 1;
+        }
+    }
+
+    /** Returns the range of COUNT lines from line START, counting from
+     *  zero, as a hunk header gives it: from one, with an empty range
+     *  given by the line before it and a count of one left out. */
+    private static String range(int start, int count) {
+        if (count == 1) {
+            return Integer.toString(start + 1);
+        }
+        return (count == 0 ? start : start + 1) + "," + count;
+    }
+
+    /** Appends lines [FROM, TO) of LINES to OUT, each after PREFIX, noting
+     *  a last line with no newline as a unified diff does. */
+    private static void lines(StringBuilder out, char prefix, Lines lines, int from, int to) {
+        for (int i = from; i < to; i += 1) {
+            out.append(prefix).append(new String(lines.data, lines.start(i),
+                    lines.end(i) - lines.start(i), StandardCharsets.UTF_8));
+            if (lines.data[lines.end(i) - 1] != '\n') {
+                out.append("\n\\ No newline at end of file\n");
+            }
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import static gitlet.Utils.*;
+
+/** Objects read from or written to files in the .gitlet directory, each
+ *  kept with the stamp (size, modification time and file key) its file
+ *  had at the time.  A process that runs many commands, such as the
+ *  daemon, reads a file again only once its stamp has changed.  Objects
+ *  returned by read are shared and must not be modified.
+ *
+ *  @author alysa liu
+ */
+class FileCache {
+
+    /** The cached objects and their stamps, by file. */
+    private static final HashMap<File, Object[]> CACHE = new HashMap<>();
+
+    /** Returns the object in FILE, as DECODER makes it from the file's
+     *  contents, reading it only if FILE has changed since it was last read
+     *  or written. */
+    static <T> T read(File file, Function<byte[], T> decoder) {
+        Object stamp = stamp(file);
+        Object[] cached = CACHE.get(file);
+        if (cached != null && (Journal.isPending(file)
+                || stamp != null && stamp.equals(cached[0]))) {
+            // Each file is only read with one decoder, and only written
+            // with an object of the type that decoder makes.
+            @SuppressWarnings("unchecked")
+            T obj = (T) cached[1];
+            return obj;
+        }
+        T obj = decoder.apply(readContents(file));
+        CACHE.put(file, new Object[] {stamp, obj});
+        return obj;
+    }
+
+    /** Writes CONTENTS, the encoding of OBJ, to FILE when the command's
+     *  Journal commits, and keeps OBJ as FILE's contents until then and
+     *  after.  OBJ must not be modified afterwards. */
+    static void write(File file, Object obj, byte[] contents) {
+        Journal.write(file, contents);
+        CACHE.put(file, new Object[] {null, obj});
+    }
+
+    /** Records the stamp FILE has now that the Journal has written it. */
+    static void written(File file) {
+        Object[] cached = CACHE.get(file);
+        if (cached != null) {
+            cached[0] = stamp(file);
+        }
+    }
+
+    /** Forgets every cached object. */
+    static void clear() {
+        CACHE.clear();
+    }
+
+    /** Returns the stamp of FILE, which changes whenever FILE is written,
+     *  or null if FILE does not exist. */
+    static Object stamp(File file) {
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(file.toPath(),
+                    BasicFileAttributes.class);
+            return Arrays.asList(attrs.size(), attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS),
+                    attrs.fileKey());
+        } catch (IOException excp) {
+            return null;
+        }
+    }
+}
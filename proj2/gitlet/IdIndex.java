@@ -0,0 +1,172 @@
+package gitlet;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import static gitlet.Utils.*;
+
+/** A sorted table of object ids inside a memory-mapped index file, as used
+ *  by pack indexes and the commit-graph.  The file starts with a magic
+ *  number and a version, followed by a fanout table whose entry B is the
+ *  number of ids whose first byte is at most B, followed by the ids
+ *  themselves as 20-byte big-endian numbers in ascending order.  Lookups
+ *  narrow the search to one fanout bucket, then binary search it.
+ *
+ *  @author alysa liu
+ */
+class IdIndex {
+
+    /** Length of an id in bytes. */
+    static final int ID_BYTES = UID_LENGTH / 2;
+    /** Offset of the ids in the file, after the header and fanout table. */
+    static final int IDS = 8 + 256 * 4;
+    /** Version of the index format. */
+    private static final int VERSION = 1;
+    /** The hexadecimal digits, as ASCII. */
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    /** The contents of the index file. */
+    private final ByteBuffer data;
+    /** Number of ids in the table. */
+    private final int count;
+
+    /** The table stored in DATA.  Throws an error if DATA is of a version
+     *  this does not know. */
+    IdIndex(ByteBuffer data) {
+        if (data.getInt(4) != VERSION) {
+            throw error("Unknown index version %d.", data.getInt(4));
+        }
+        this.data = data;
+        this.count = data.getInt(IDS - 4);
+    }
+
+    /** Returns the number of ids in the table. */
+    int size() {
+        return count;
+    }
+
+    /** Returns the offset in the file just past the ids. */
+    int end() {
+        return IDS + count * ID_BYTES;
+    }
+
+    /** Returns the row of ID, or -1 if it is not in the table. */
+    int find(String id) {
+        if (id == null || id.length() != UID_LENGTH || !isHex(id)) {
+            return -1;
+        }
+        int row = search(toBytes(id));
+        return row >= 0 ? row : -1;
+    }
+
+    /** Returns the row of KEY if present, and otherwise -(p + 1), where p
+     *  is the row at which KEY would be inserted. */
+    int search(byte[] key) {
+        int first = key[0] & 0xff;
+        int lo = first == 0 ? 0 : data.getInt(8 + (first - 1) * 4);
+        int hi = data.getInt(8 + first * 4) - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = Arrays.compareUnsigned(idBytes(mid), key);
+            if (cmp == 0) {
+                return mid;
+            } else if (cmp < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return -(lo + 1);
+    }
+
+    /** Returns the rows [FROM, TO) of the ids that start with the
+     *  hexadecimal PREFIX, as {FROM, TO}.  The range is empty if PREFIX is
+     *  empty or is not hexadecimal. */
+    int[] prefixRange(String prefix) {
+        prefix = prefix.toLowerCase();
+        if (prefix.isEmpty() || prefix.length() > UID_LENGTH || !isHex(prefix)) {
+            return new int[] {0, 0};
+        }
+        String zeros = "0".repeat(UID_LENGTH - prefix.length());
+        String effs = "f".repeat(UID_LENGTH - prefix.length());
+        int from = search(toBytes(prefix + zeros));
+        int to = search(toBytes(prefix + effs));
+        from = from >= 0 ? from : -from - 1;
+        to = to >= 0 ? to + 1 : -to - 1;
+        return new int[] {from, to};
+    }
+
+    /** Returns the id at ROW as a hexadecimal numeral. */
+    String id(int row) {
+        StringBuilder result = new StringBuilder(UID_LENGTH);
+        int base = IDS + row * ID_BYTES;
+        for (int i = 0; i < ID_BYTES; i += 1) {
+            result.append(Character.forDigit((data.get(base + i) >> 4) & 0xf, 16));
+            result.append(Character.forDigit(data.get(base + i) & 0xf, 16));
+        }
+        return result.toString();
+    }
+
+    /** Returns the id at ROW as bytes. */
+    byte[] idBytes(int row) {
+        byte[] result = new byte[ID_BYTES];
+        data.get(IDS + row * ID_BYTES, result);
+        return result;
+    }
+
+    /** Returns the 40-digit hexadecimal ID as bytes. */
+    static byte[] toBytes(String id) {
+        byte[] result = new byte[ID_BYTES];
+        for (int i = 0; i < ID_BYTES; i += 1) {
+            result[i] = (byte) (digit(id.charAt(2 * i)) << 4 | digit(id.charAt(2 * i + 1)));
+        }
+        return result;
+    }
+
+    /** Returns the value of the lower-case hexadecimal digit C. */
+    private static int digit(char c) {
+        return c <= '9' ? c - '0' : c - 'a' + 10;
+    }
+
+    /** Returns the 20-byte id BYTES as a hexadecimal numeral. */
+    static String toHex(byte[] bytes) {
+        byte[] digits = new byte[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i += 1) {
+            digits[2 * i] = HEX[(bytes[i] >> 4) & 0xf];
+            digits[2 * i + 1] = HEX[bytes[i] & 0xf];
+        }
+        return new String(digits, StandardCharsets.ISO_8859_1);
+    }
+
+    /** Writes the header for an index file with MAGIC, followed by the
+     *  fanout table and the sorted ids IDS, to OUT. */
+    static void write(DataOutputStream out, int magic, byte[][] ids) throws IOException {
+        int[] fanout = new int[256];
+        for (byte[] id : ids) {
+            fanout[id[0] & 0xff] += 1;
+        }
+        out.writeInt(magic);
+        out.writeInt(VERSION);
+        int total = 0;
+        for (int n : fanout) {
+            total += n;
+            out.writeInt(total);
+        }
+        for (byte[] id : ids) {
+            out.write(id);
+        }
+    }
+
+    /** Returns true iff S consists of lower-case hexadecimal digits. */
+    private static boolean isHex(String s) {
+        for (int i = 0; i < s.length(); i += 1) {
+            char c = s.charAt(i);
+            if (!(c >= '0' && c <= '9') && !(c >= 'a' && c <= 'f')) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,252 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+import static gitlet.Utils.*;
+
+/** The transaction through which a command updates gitlet's state files:
+ *  the repository object, the branches, the staging area and the index.
+ *  Writes are held in memory until the command ends.  commit then writes
+ *  them all to the journal, syncs it to disk, and replaces each state file
+ *  with its new contents by renaming a synced temporary file over it.  If
+ *  the process dies before the journal is complete, no state file has
+ *  been touched; if it dies after, recover finishes the job when the next
+ *  command starts.  Either way a command's updates are seen all together
+ *  or not at all.
+ *
+ *  Objects are written before the journal, each to a temporary file that
+ *  is synced and renamed into place, so the refs never name a torn
+ *  object.  The directories those renames changed are synced once, before
+ *  the journal, and the .gitlet directory once more after the state files
+ *  are renamed, before the journal is deleted.
+ *
+ *  For testing, GITLET_CRASH_AT=N makes the process halt at the Nth step
+ *  of a command that writes to .gitlet.
+ *
+ *  @author alysa liu
+ */
+class Journal {
+
+    /** The journal file. */
+    static final File JOURNAL_FILE = join(Repository.GITLET_DIR, "journal");
+
+    /** Magic number at the start of the journal. */
+    private static final int MAGIC = 0x474c4a31;
+    /** Exit status of a process halted by GITLET_CRASH_AT. */
+    static final int CRASHED = 99;
+
+    /** The pending contents of state files, in the order written. */
+    private static final LinkedHashMap<File, byte[]> PENDING = new LinkedHashMap<>();
+
+    /** Directories changed by renaming objects into them since the last
+     *  commit.  Objects may be written on several threads at once. */
+    private static final Set<File> DIRTY = ConcurrentHashMap.newKeySet();
+
+    /** The step of the current command at which to halt, or 0. */
+    private static int crashAt;
+    /** Number of steps the current command has taken so far. */
+    private static int steps;
+
+    /** Records CONTENTS as the new contents of the state file FILE, to be
+     *  written when the command commits. */
+    static void write(File file, byte[] contents) {
+        PENDING.put(file, contents);
+    }
+
+    /** Returns true iff FILE has been written since the last commit. */
+    static boolean isPending(File file) {
+        return PENDING.containsKey(file);
+    }
+
+    /** Writes every pending state file, as one atomic update. */
+    static void commit() {
+        for (File dir : DIRTY) {
+            sync(dir);
+        }
+        DIRTY.clear();
+        if (PENDING.isEmpty()) {
+            return;
+        }
+        byte[] journal = encode();
+        try (FileChannel out = FileChannel.open(JOURNAL_FILE.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            out.write(ByteBuffer.wrap(journal, 0, journal.length / 2));
+            step();
+            out.write(ByteBuffer.wrap(journal, journal.length / 2,
+                    journal.length - journal.length / 2));
+            out.force(false);
+        } catch (IOException excp) {
+            throw error("Cannot write journal: %s", excp.getMessage());
+        }
+        step();
+        for (Map.Entry<File, byte[]> file : PENDING.entrySet()) {
+            replace(file.getKey(), file.getValue());
+            FileCache.written(file.getKey());
+        }
+        PENDING.clear();
+        sync(Repository.GITLET_DIR);
+        JOURNAL_FILE.delete();
+    }
+
+    /** Forgets every pending write, after a command has failed. */
+    static void abort() {
+        PENDING.clear();
+    }
+
+    /** Finishes the update in the journal, if a command left a complete
+     *  one behind, and discards a torn one. */
+    static void recover() {
+        if (!JOURNAL_FILE.exists()) {
+            return;
+        }
+        LinkedHashMap<File, byte[]> files = decode(readContents(JOURNAL_FILE));
+        if (files != null) {
+            for (Map.Entry<File, byte[]> file : files.entrySet()) {
+                replace(file.getKey(), file.getValue());
+            }
+        }
+        FileCache.clear();
+        sync(Repository.GITLET_DIR);
+        JOURNAL_FILE.delete();
+    }
+
+    /** Returns the journal of the pending writes: their number, then the
+     *  name and contents of each, then a CRC-32 of all that. */
+    private static byte[] encode() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(PENDING.size());
+            for (Map.Entry<File, byte[]> file : PENDING.entrySet()) {
+                out.writeUTF(file.getKey().getName());
+                out.writeInt(file.getValue().length);
+                out.write(file.getValue());
+            }
+            CRC32 crc = new CRC32();
+            crc.update(bytes.toByteArray());
+            out.writeLong(crc.getValue());
+        } catch (IOException excp) {
+            throw error("Cannot encode journal: %s", excp.getMessage());
+        }
+        return bytes.toByteArray();
+    }
+
+    /** Returns the writes in the journal DATA, by file, or null if DATA is
+     *  incomplete. */
+    private static LinkedHashMap<File, byte[]> decode(byte[] data) {
+        if (data.length < 16) {
+            return null;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length - 8);
+        if (ByteBuffer.wrap(data).getLong(data.length - 8) != crc.getValue()) {
+            return null;
+        }
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        LinkedHashMap<File, byte[]> files = new LinkedHashMap<>();
+        try {
+            if (in.readInt() != MAGIC) {
+                return null;
+            }
+            for (int n = in.readInt(); n > 0; n -= 1) {
+                File file = join(Repository.GITLET_DIR, in.readUTF());
+                byte[] contents = new byte[in.readInt()];
+                in.readFully(contents);
+                files.put(file, contents);
+            }
+        } catch (EOFException excp) {
+            return null;
+        } catch (IOException excp) {
+            throw error("Cannot read journal: %s", excp.getMessage());
+        }
+        return files;
+    }
+
+    /** Returns a temporary file in which to write the new contents of
+     *  FILE, not used by any other process. */
+    static File tempFile(File file) {
+        return new File(file.getPath() + "." + ProcessHandle.current().pid() + ".tmp");
+    }
+
+    /** Replaces the contents of FILE with CONTENTS by renaming a new file
+     *  over it. */
+    private static void replace(File file, byte[] contents) {
+        File tmp = tempFile(file);
+        writeContents(tmp, contents);
+        sync(tmp);
+        step();
+        move(tmp, file);
+    }
+
+    /** Renames SOURCE to TARGET, replacing TARGET, in one atomic step. */
+    static void move(File source, File target) {
+        try {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            throw error("Cannot write %s: %s", target.getName(), excp.getMessage());
+        }
+    }
+
+    /** Renames the new object SOURCE to TARGET, as move does, after
+     *  syncing its contents, and notes the directories of both to be
+     *  synced when the command commits. */
+    static void install(File source, File target) {
+        sync(source);
+        step();
+        move(source, target);
+        DIRTY.add(source.getParentFile());
+        DIRTY.add(target.getParentFile());
+    }
+
+    /** Forces the contents of FILE, which may be a directory, to disk.
+     *  Systems that cannot open a directory to sync it, such as Windows,
+     *  make its renames durable by themselves. */
+    static void sync(File file) {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException excp) {
+            if (!file.isDirectory()) {
+                throw error("Cannot sync %s: %s", file.getName(), excp.getMessage());
+            }
+        }
+    }
+
+    /** Marks a step that writes to .gitlet, halting the process if it is
+     *  the step named by GITLET_CRASH_AT. */
+    static synchronized void step() {
+        steps += 1;
+        if (steps == crashAt) {
+            Runtime.getRuntime().halt(CRASHED);
+        }
+    }
+
+    /** Starts counting the steps of a command run in the environment
+     *  ENV, which halts at the step named by its GITLET_CRASH_AT. */
+    static synchronized void start(Map<String, String> env) {
+        String value = env.get("GITLET_CRASH_AT");
+        steps = 0;
+        try {
+            crashAt = value == null ? 0 : Integer.parseInt(value.trim());
+        } catch (NumberFormatException excp) {
+            crashAt = 0;
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import static gitlet.Utils.*;
+
+/** A reader for files written by Java serialization, as gitlet wrote all
+ *  of its files before it had a format of its own.  It parses the
+ *  serialization stream itself instead of using ObjectInputStream, so it
+ *  needs neither the classes the objects were written from nor matching
+ *  serialVersionUIDs, and it reads files from any older version of the
+ *  Commit, Tree and Repository classes.  Strings are returned as strings,
+ *  maps as Maps, and every other object as a Record of its fields.
+ *
+ *  Only the parts of the protocol that gitlet's objects use are
+ *  understood: objects, strings, class descriptors, back references and
+ *  the block data written by HashMap and TreeMap.
+ *
+ *  @author alysa liu
+ */
+class Legacy {
+
+    /** Stream tags, from java.io.ObjectStreamConstants. */
+    private static final int TC_NULL = 0x70, TC_REFERENCE = 0x71, TC_CLASSDESC = 0x72,
+        TC_OBJECT = 0x73, TC_STRING = 0x74, TC_BLOCKDATA = 0x77, TC_ENDBLOCKDATA = 0x78,
+        TC_BLOCKDATALONG = 0x7a;
+    /** Class descriptor flag for classes with their own writeObject. */
+    private static final int SC_WRITE_METHOD = 0x01;
+    /** The stream's magic number and version. */
+    private static final int STREAM_MAGIC = 0xaced, STREAM_VERSION = 5;
+
+    /** An object of a class gitlet itself defined. */
+    static class Record {
+        /** The object's fields, by name. */
+        private final HashMap<String, Object> fields = new HashMap<>();
+
+        /** Returns the value of field NAME, which must be a string or null. */
+        String string(String name) {
+            return (String) fields.get(name);
+        }
+
+        /** Returns a copy of the value of field NAME, which must be a map
+         *  of strings to strings or null. */
+        Map<String, String> map(String name) {
+            return Codec.strings((Map<?, ?>) fields.get(name));
+        }
+    }
+
+    /** A class descriptor. */
+    private static class ClassDesc {
+        /** Name of the class. */
+        private String name;
+        /** Descriptor flags. */
+        private int flags;
+        /** Type codes of the serializable fields, in stream order. */
+        private final List<Character> types = new ArrayList<>();
+        /** Names of the serializable fields, in stream order. */
+        private final List<String> names = new ArrayList<>();
+        /** Descriptor of the superclass, or null. */
+        private ClassDesc superDesc;
+    }
+
+    /** The stream being read. */
+    private final DataInputStream in;
+    /** Objects, strings and descriptors, by handle. */
+    private final List<Object> handles = new ArrayList<>();
+
+    /** A reader of DATA. */
+    private Legacy(byte[] data) {
+        in = new DataInputStream(new ByteArrayInputStream(data));
+    }
+
+    /** Returns the object serialized in DATA. */
+    static Object read(byte[] data) {
+        Legacy reader = new Legacy(data);
+        try {
+            if (reader.in.readUnsignedShort() != STREAM_MAGIC
+                    || reader.in.readUnsignedShort() != STREAM_VERSION) {
+                throw error("Not a serialized object.");
+            }
+            return reader.content(reader.in.readUnsignedByte());
+        } catch (IOException excp) {
+            throw error("Corrupt serialized object: %s", excp.getMessage());
+        }
+    }
+
+    /** Reads the content that starts with TAG. */
+    private Object content(int tag) throws IOException {
+        switch (tag) {
+            case TC_NULL:
+                return null;
+            case TC_REFERENCE:
+                return handles.get(in.readInt() - 0x7e0000);
+            case TC_STRING:
+                String s = in.readUTF();
+                handles.add(s);
+                return s;
+            case TC_CLASSDESC:
+                return classDesc(tag);
+            case TC_OBJECT:
+                return object();
+            case TC_BLOCKDATA:
+                in.skipNBytes(in.readUnsignedByte());
+                return null;
+            case TC_BLOCKDATALONG:
+                in.skipNBytes(in.readInt());
+                return null;
+            default:
+                throw error("Unsupported serialization tag 0x%x.", tag);
+        }
+    }
+
+    /** Reads the class descriptor that starts with TAG. */
+    private ClassDesc classDesc(int tag) throws IOException {
+        if (tag == TC_NULL) {
+            return null;
+        } else if (tag == TC_REFERENCE) {
+            return (ClassDesc) handles.get(in.readInt() - 0x7e0000);
+        } else if (tag != TC_CLASSDESC) {
+            throw error("Unsupported class descriptor 0x%x.", tag);
+        }
+        ClassDesc desc = new ClassDesc();
+        desc.name = in.readUTF();
+        in.readLong();
+        handles.add(desc);
+        desc.flags = in.readUnsignedByte();
+        int count = in.readUnsignedShort();
+        for (int i = 0; i < count; i += 1) {
+            char type = (char) in.readUnsignedByte();
+            desc.types.add(type);
+            desc.names.add(in.readUTF());
+            if (type == 'L' || type == '[') {
+                content(in.readUnsignedByte());
+            }
+        }
+        annotations();
+        desc.superDesc = classDesc(in.readUnsignedByte());
+        return desc;
+    }
+
+    /** Reads a new object and returns it as a Record or a Map. */
+    private Object object() throws IOException {
+        ClassDesc desc = classDesc(in.readUnsignedByte());
+        boolean isMap = desc.name.endsWith("Map");
+        Record record = new Record();
+        Map<Object, Object> map = desc.name.equals("java.util.TreeMap")
+                ? new TreeMap<>() : new LinkedHashMap<>();
+        handles.add(isMap ? map : record);
+
+        List<ClassDesc> hierarchy = new ArrayList<>();
+        for (ClassDesc d = desc; d != null; d = d.superDesc) {
+            hierarchy.add(0, d);
+        }
+        for (ClassDesc d : hierarchy) {
+            for (int i = 0; i < d.types.size(); i += 1) {
+                record.fields.put(d.names.get(i), value(d.types.get(i)));
+            }
+            if ((d.flags & SC_WRITE_METHOD) != 0) {
+                List<Object> written = annotations();
+                if (isMap) {
+                    for (int i = 0; i + 1 < written.size(); i += 2) {
+                        map.put(written.get(i), written.get(i + 1));
+                    }
+                }
+            }
+        }
+        return isMap ? map : record;
+    }
+
+    /** Reads a field value of TYPE. */
+    private Object value(char type) throws IOException {
+        switch (type) {
+            case 'B':
+                return in.readByte();
+            case 'C':
+                return in.readChar();
+            case 'D':
+                return in.readDouble();
+            case 'F':
+                return in.readFloat();
+            case 'I':
+                return in.readInt();
+            case 'J':
+                return in.readLong();
+            case 'S':
+                return in.readShort();
+            case 'Z':
+                return in.readBoolean();
+            default:
+                return content(in.readUnsignedByte());
+        }
+    }
+
+    /** Reads the objects written by a class's own writeObject, up to the
+     *  end of its block data, and returns them in order.  Block data
+     *  itself is skipped. */
+    private List<Object> annotations() throws IOException {
+        List<Object> result = new ArrayList<>();
+        for (int tag = in.readUnsignedByte(); tag != TC_ENDBLOCKDATA;
+             tag = in.readUnsignedByte()) {
+            if (tag == TC_BLOCKDATA || tag == TC_BLOCKDATALONG) {
+                content(tag);
+            } else {
+                result.add(content(tag));
+            }
+        }
+        return result;
+    }
+}
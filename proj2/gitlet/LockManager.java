@@ -0,0 +1,198 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import static gitlet.Utils.*;
+
+/** The lock that keeps gitlet processes sharing a repository from losing
+ *  each other's updates.  Commands that only read the repository take
+ *  .gitlet/lock shared, so any number of them run at once; commands that
+ *  change it take it exclusively.  The lock is a FileChannel lock, which
+ *  the operating system releases when its holder exits, so a killed
+ *  process never leaves a lock behind.  A process waits up to
+ *  GITLET_LOCK_TIMEOUT milliseconds (10 seconds by default) for the lock.
+ *
+ *  The exclusive holder writes its pid and command into the lock file and
+ *  clears them when it is done.  A process that times out names that
+ *  holder if it is still running.  A note left by a process that is no
+ *  longer running is stale: its holder was killed mid-command, and the
+ *  next exclusive holder recovers its journal.
+ *
+ *  @author alysa liu
+ */
+class LockManager {
+
+    /** The lock file. */
+    static final File LOCK_FILE = join(Repository.GITLET_DIR, "lock");
+
+    /** The wait used if none is configured, in milliseconds. */
+    private static final long DEFAULT_TIMEOUT = 10000;
+    /** The longest pause between attempts to take the lock, in
+     *  milliseconds. */
+    private static final long MAX_PAUSE = 50;
+
+    /** The channel of the lock file while the lock is held, or null. */
+    private static FileChannel channel;
+    /** The lock held, or null. */
+    private static FileLock lock;
+    /** Milliseconds spent waiting for the lock by the current command. */
+    private static long waited;
+
+    /** Takes the lock, shared if SHARED and exclusive otherwise, waiting
+     *  for other processes as long as the timeout allows.  Recovers the
+     *  journal of a command that was killed, if there is one.  Returns
+     *  false, after printing an error, if the lock could not be had. */
+    static boolean acquire(boolean shared, String command) {
+        waited = 0;
+        if (!take(shared)) {
+            return false;
+        }
+        if (Journal.JOURNAL_FILE.exists()) {
+            if (shared) {
+                release();
+                if (!take(false)) {
+                    return false;
+                }
+            }
+            Journal.recover();
+            if (shared) {
+                release();
+                return take(true);
+            }
+        }
+        if (!shared) {
+            note(ProcessHandle.current().pid() + " " + command);
+        }
+        return true;
+    }
+
+    /** Runs ACTION, which writes files in .gitlet that a read-only
+     *  command may bring up to date, such as the indexes derived from the
+     *  objects, under the exclusive lock.  A command that holds the lock
+     *  shared gives it up, takes it exclusively for ACTION, recovering any
+     *  journal a writer left in between, then takes it shared again, as
+     *  acquire does; ACTION must check that its work is still needed, since
+     *  another process may have done it in between.  Where no lock is held,
+     *  as in the tools that build repositories, ACTION just runs. */
+    static void exclusively(Runnable action) {
+        if (lock == null || !lock.isShared()) {
+            action.run();
+            return;
+        }
+        release();
+        if (!take(false)) {
+            throw error("Cannot lock the repository to update it.");
+        }
+        try {
+            Journal.recover();
+            action.run();
+        } finally {
+            release();
+            if (!take(true)) {
+                throw error("Cannot lock the repository again.");
+            }
+        }
+    }
+
+    /** Releases the lock, if it is held. */
+    static void release() {
+        if (lock == null) {
+            return;
+        }
+        try {
+            if (!lock.isShared()) {
+                channel.truncate(0);
+            }
+            lock.release();
+            channel.close();
+        } catch (IOException excp) {
+            throw error("Cannot release lock: %s", excp.getMessage());
+        } finally {
+            lock = null;
+            channel = null;
+        }
+    }
+
+    /** Returns the time the current command spent waiting for the lock. */
+    static String stats() {
+        return String.format("lock: waited %d ms", waited);
+    }
+
+    /** Returns the milliseconds the current command spent waiting for the
+     *  lock. */
+    static long waited() {
+        return waited;
+    }
+
+    /** Takes the lock, shared if SHARED, adding the time spent waiting to
+     *  WAITED.  Returns false, after printing an error, on timeout. */
+    private static boolean take(boolean shared) {
+        long start = System.nanoTime();
+        long deadline = start + timeout() * 1000000;
+        try {
+            channel = FileChannel.open(LOCK_FILE.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            long pause = 1;
+            while ((lock = channel.tryLock(0, Long.MAX_VALUE, shared)) == null) {
+                if (System.nanoTime() > deadline) {
+                    timedOut();
+                    channel.close();
+                    channel = null;
+                    return false;
+                }
+                Thread.sleep(pause);
+                pause = Math.min(pause * 2, MAX_PAUSE);
+            }
+        } catch (IOException excp) {
+            throw error("Cannot lock repository: %s", excp.getMessage());
+        } catch (InterruptedException excp) {
+            throw error("Interrupted while waiting for the repository lock.");
+        } finally {
+            waited += (System.nanoTime() - start) / 1000000;
+        }
+        return true;
+    }
+
+    /** Prints the error for a lock that could not be had, naming the
+     *  process that holds it if that is known. */
+    private static void timedOut() throws IOException {
+        String holder = new String(readContents(LOCK_FILE), StandardCharsets.UTF_8).trim();
+        String[] parts = holder.split(" ", 2);
+        if (parts.length == 2 && parts[0].matches("\\d+")
+                && ProcessHandle.of(Long.parseLong(parts[0])).map(ProcessHandle::isAlive)
+                        .orElse(false)) {
+            System.out.println("Another gitlet process (pid " + parts[0] + ", "
+                    + parts[1] + ") is using this repository.");
+        } else {
+            System.out.println("Another gitlet process is using this repository.");
+        }
+    }
+
+    /** Replaces the contents of the lock file with NOTE. */
+    private static void note(String note) {
+        try {
+            channel.truncate(0);
+            channel.write(ByteBuffer.wrap((note + "\n").getBytes(StandardCharsets.UTF_8)), 0);
+        } catch (IOException excp) {
+            throw error("Cannot write lock: %s", excp.getMessage());
+        }
+    }
+
+    /** Returns the configured timeout in milliseconds. */
+    private static long timeout() {
+        String value = System.getenv("GITLET_LOCK_TIMEOUT");
+        if (value != null) {
+            try {
+                return Long.parseLong(value.trim());
+            } catch (NumberFormatException excp) {
+                System.err.println("Ignoring bad lock timeout " + value + ".");
+            }
+        }
+        return DEFAULT_TIMEOUT;
+    }
+}
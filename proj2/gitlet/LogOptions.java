@@ -0,0 +1,71 @@
+package gitlet;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+
+/** The options of log and global-log: -n COUNT, the most commits to
+ *  show; --since DATE, to show only commits made at or after DATE (as
+ *  yyyy-MM-dd or yyyy-MM-dd HH:mm:ss, local time); and --oneline, to show
+ *  each commit as its abbreviated id and the first line of its message.
+ *
+ *  @author alysa liu
+ */
+class LogOptions {
+
+    /** Formats accepted by --since, longest first. */
+    private static final String[] DATE_FORMATS = {"yyyy-MM-dd HH:mm:ss", "yyyy-MM-dd"};
+
+    /** The most commits to show. */
+    int limit = Integer.MAX_VALUE;
+    /** The earliest time of a commit to show, in milliseconds. */
+    long since = Long.MIN_VALUE;
+    /** True iff commits are shown one per line. */
+    boolean oneline;
+
+    /** Returns the options in ARGS[FROM..], or null if they are not
+     *  valid. */
+    static LogOptions parse(String[] args, int from) {
+        LogOptions options = new LogOptions();
+        for (int i = from; i < args.length; i += 1) {
+            if (args[i].equals("--oneline")) {
+                options.oneline = true;
+            } else if (args[i].equals("-n") && i + 1 < args.length) {
+                i += 1;
+                try {
+                    options.limit = Integer.parseInt(args[i]);
+                } catch (NumberFormatException excp) {
+                    return null;
+                }
+                if (options.limit < 0) {
+                    return null;
+                }
+            } else if (args[i].equals("--since") && i + 1 < args.length) {
+                i += 1;
+                options.since = parseDate(args[i]);
+                if (options.since == Long.MIN_VALUE) {
+                    return null;
+                }
+            } else {
+                return null;
+            }
+        }
+        return options;
+    }
+
+    /** Returns the time DATE names, in milliseconds, or Long.MIN_VALUE if
+     *  it is not in an accepted format. */
+    private static long parseDate(String date) {
+        for (String format : DATE_FORMATS) {
+            SimpleDateFormat parser = new SimpleDateFormat(format);
+            parser.setLenient(false);
+            try {
+                if (date.length() == format.length()) {
+                    return parser.parse(date).getTime();
+                }
+            } catch (ParseException excp) {
+                return Long.MIN_VALUE;
+            }
+        }
+        return Long.MIN_VALUE;
+    }
+}
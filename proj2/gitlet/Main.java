@@ -1,6 +1,9 @@
 package gitlet;
 
 import java.io.File;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
 import static gitlet.Utils.*;
 
 /** Driver class for Gitlet, a subset of the Git version-control system.
@@ -17,52 +20,160 @@ public class Main {
     public static final File GITLET_DIR = join(CWD, ".gitlet");
     /** File that stores the repository object */
     public static final File REPO_OBJECT = join(GITLET_DIR, "repository");
+    /** Commands that only read the repository, and so share its lock. */
+    private static final Set<String> READ_ONLY = Set.of("log", "global-log", "status", "find",
+        "diff");
+    /** The grace period of gc if none is given: two weeks, in seconds. */
+    private static final long DEFAULT_GRACE = 14 * 24 * 60 * 60;
 
     public static void main(String[] args) {
+        if (!Daemon.forward(args)) {
+            run(args);
+        }
+    }
+
+    /** Runs the command in ARGS in this process, in its environment. */
+    static void run(String[] args) {
+        run(args, System.getenv());
+    }
+
+    /** Runs the command in ARGS in this process, with the GITLET_
+     *  variables of the environment ENV, which may be a client's of the
+     *  daemon.  A first argument of --trace traces the command as JSON
+     *  lines on standard error. */
+    static void run(String[] args, Map<String, String> env) {
+        Journal.start(env);
+        int trace = Trace.configured(env);
+        if (args.length > 0 && args[0].equals("--trace")) {
+            trace = Trace.JSON;
+            args = Arrays.copyOfRange(args, 1, args.length);
+        }
         if (args.length == 0) {
             System.out.println("Please enter a command.");
-            System.exit(0);
+            return;
         }
         String firstArg = args[0];
         if (!GITLET_DIR.exists() && !firstArg.equals("init")) {
             System.out.println("Not in an initialized Gitlet directory.");
-            System.exit(0);
+            return;
+        }
+        if (firstArg.equals("daemon")) {
+            execute(args);
+            return;
+        }
+        Trace.start(firstArg, trace);
+        try {
+            boolean locked = GITLET_DIR.exists();
+            try (Trace.Span phase = Trace.phase("lock")) {
+                if (locked && !LockManager.acquire(READ_ONLY.contains(firstArg), firstArg)) {
+                    return;
+                }
+            }
+            try {
+                execute(args);
+            } finally {
+                if (locked) {
+                    LockManager.release();
+                }
+            }
+        } finally {
+            Trace.finish();
         }
+    }
+
+    /** Runs the command in ARGS, holding the repository lock if there is
+     *  a repository, then saves what it changed. */
+    private static void execute(String[] args) {
+        Repository repo;
+        try (Trace.Span phase = Trace.phase("command")) {
+            repo = dispatch(args);
+        }
+        if (repo == null) {
+            return;
+        }
+        try (Trace.Span phase = Trace.phase("save")) {
+            if (!READ_ONLY.contains(args[0])) {
+                StatCache.flush();
+                FileCache.write(REPO_OBJECT, repo, repo.encode());
+            } else if (StatCache.changed()) {
+                // Files hashed by a read-only command are recorded under
+                // the exclusive lock, like every other write.
+                LockManager.exclusively(() -> {
+                    StatCache.flush();
+                    Journal.commit();
+                });
+            }
+        }
+        try (Trace.Span phase = Trace.phase("journal")) {
+            Journal.commit();
+        }
+    }
+
+    /** Returns the repository object, as a copy that the command may
+     *  change: the one in the FileCache is shared with later commands run
+     *  by the daemon, which must not see changes a failed command made. */
+    private static Repository loadRepository() {
+        return FileCache.read(REPO_OBJECT, Repository::decode).copy();
+    }
+
+    /** Runs the command in ARGS.  Returns the repository to save, or null
+     *  if there is nothing to save. */
+    private static Repository dispatch(String[] args) {
+        String firstArg = args[0];
         Repository repo = new Repository();
+        if (!firstArg.equals("init") && !firstArg.equals("migrate-objects")
+                && !firstArg.equals("daemon") && Repository.unmigrated()) {
+            System.out.println("This repository was made by an older gitlet; "
+                    + "run migrate-objects first.");
+            return null;
+        }
         switch (firstArg) {
             case "init":
                 repo.init();
                 break;
             case "add":
-                repo = readObject(REPO_OBJECT, Repository.class);
-                String fileName = args[1];
-                repo.add(fileName);
+                repo = loadRepository();
+                if (args.length < 2) {
+                    System.out.println("Incorrect operands.");
+                    return null;
+                }
+                repo.add(Arrays.copyOfRange(args, 1, args.length));
                 break;
             case "rm":
-                repo = readObject(REPO_OBJECT, Repository.class);
+                repo = loadRepository();
                 repo.remove(args[1]);
                 break;
             case "commit":
-                repo = readObject(REPO_OBJECT, Repository.class);
+                repo = loadRepository();
                 String message = args[1];
                 repo.commit(message);
                 break;
             case "log":
-                repo = readObject(REPO_OBJECT, Repository.class);
-                repo.log();
+                LogOptions logOptions = LogOptions.parse(args, 1);
+                if (logOptions == null) {
+                    System.out.println("Incorrect operands.");
+                    return null;
+                }
+                repo = loadRepository();
+                repo.log(logOptions);
                 break;
             case "global-log":
-                repo = readObject(REPO_OBJECT, Repository.class);
-                repo.globalLog();
+                LogOptions globalLogOptions = LogOptions.parse(args, 1);
+                if (globalLogOptions == null) {
+                    System.out.println("Incorrect operands.");
+                    return null;
+                }
+                repo = loadRepository();
+                repo.globalLog(globalLogOptions);
                 break;
             case "checkout":
-                repo = readObject(REPO_OBJECT, Repository.class);
+                repo = loadRepository();
                 if (args.length == 3) {
                     repo.checkoutFile(args[2]);
                 } else if (args.length == 4) {
                     if (!args[2].equals("--")) {
                         System.out.println("Incorrect operands.");
-                        System.exit(0);
+                        return null;
                     }
                     repo.checkoutCommit(args[1], args[3]);
                 } else if (args.length == 2) {
@@ -70,34 +181,88 @@ public class Main {
                 }
                 break;
             case "branch":
-                repo = readObject(REPO_OBJECT, Repository.class);
+                repo = loadRepository();
                 repo.branch(args[1]);
                 break;
             case "find":
-                repo = readObject(REPO_OBJECT, Repository.class);
-                repo.find(args[1]);
+                if (args.length < 2 || args[1].equals("--grep") && args.length != 3) {
+                    System.out.println("Incorrect operands.");
+                    return null;
+                }
+                repo = loadRepository();
+                if (args[1].equals("--grep")) {
+                    repo.grep(args[2]);
+                } else {
+                    repo.find(args[1]);
+                }
                 break;
             case "status":
-                repo = readObject(REPO_OBJECT, Repository.class);
+                repo = loadRepository();
                 repo.status();
                 break;
+            case "diff":
+                if (args.length > 3 || args.length == 2 && !args[1].equals("--staged")
+                        || args.length == 3 && args[1].equals("--staged")) {
+                    System.out.println("Incorrect operands.");
+                    return null;
+                }
+                repo = loadRepository();
+                if (args.length == 3) {
+                    repo.diff(args[1], args[2]);
+                } else if (args.length == 2) {
+                    repo.diffStaged();
+                } else {
+                    repo.diff();
+                }
+                break;
             case "rm-branch":
-                repo = readObject(REPO_OBJECT, Repository.class);
+                repo = loadRepository();
                 repo.rmBranch(args[1]);
                 break;
             case "reset":
-                repo = readObject(REPO_OBJECT, Repository.class);
+                repo = loadRepository();
                 repo.reset(args[1]);
                 break;
             case "merge":
-                repo = readObject(REPO_OBJECT, Repository.class);
+                repo = loadRepository();
                 repo.merge(args[1]);
                 break;
+            case "gc":
+                long grace = gcGrace(args);
+                if (grace < 0) {
+                    System.out.println("Incorrect operands.");
+                    return null;
+                }
+                repo = loadRepository();
+                repo.gc(grace);
+                break;
+            case "migrate-objects":
+                repo = loadRepository();
+                repo.migrateObjects();
+                break;
+            case "daemon":
+                if (args.length > 1 && args[1].equals("stop")) {
+                    System.out.println("No gitlet daemon is running.");
+                } else {
+                    Daemon.serve();
+                }
+                return null;
             default:
                 System.out.println("No command with that name exists.");
-                System.exit(0);
+                return null;
         }
+        return repo;
+    }
 
-        writeObject(REPO_OBJECT, repo);
+    /** Returns the grace period that the gc command ARGS asks for, in
+     *  milliseconds, or -1 if ARGS are not valid. */
+    private static long gcGrace(String[] args) {
+        if (args.length == 1) {
+            return DEFAULT_GRACE * 1000;
+        }
+        if (args.length != 3 || !args[1].equals("--grace") || !args[2].matches("\\d{1,12}")) {
+            return -1;
+        }
+        return Long.parseLong(args[2]) * 1000;
     }
 }
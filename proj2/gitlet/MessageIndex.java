@@ -0,0 +1,513 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import static gitlet.Utils.*;
+
+/** An index of commit messages, so that find reads no commits.  It is
+ *  kept in two files.  The message log holds one record per commit, its
+ *  id followed by its message, and each new commit is appended to it.
+ *  The message index covers the log up to some point: it holds the offset
+ *  of each record, a hash table on the messages for exact matches, and,
+ *  for each trigram (three consecutive bytes of UTF-8) that occurs in
+ *  some message, the sorted list of records in whose messages it occurs,
+ *  for substring matches.  Records past the covered part are scanned.
+ *  Once that tail grows past an eighth of the log, the index is rebuilt
+ *  to cover the whole log, so appends stay cheap and the tail short.
+ *
+ *  The files can be derived from the commits, and are rebuilt if either
+ *  is missing or they do not hold as many records as the commit-graph
+ *  has commits, as after a command killed between saving a commit and
+ *  appending it.
+ *
+ *  @author alysa liu
+ */
+class MessageIndex {
+
+    /** The message log. */
+    static final File LOG_FILE = join(Repository.GITLET_DIR, "messages");
+    /** The message index. */
+    static final File INDEX_FILE = join(Repository.GITLET_DIR, "message-index");
+
+    /** Magic number at the start of the log. */
+    private static final int LOG_MAGIC = 0x474c4d4c;
+    /** Magic number at the start of the index. */
+    private static final int INDEX_MAGIC = 0x474c4d49;
+    /** Version of the index format. */
+    private static final int VERSION = 1;
+    /** Length of the index header: magic, version, number of records,
+     *  length of the log covered, size of the hash table and number of
+     *  trigrams. */
+    private static final int HEADER = 6 * 4;
+    /** Length of the log's uncovered tail, in bytes, past which the index
+     *  is rebuilt, in addition to an eighth of the log. */
+    private static final int MIN_TAIL = 64 << 10;
+
+    /** The index as last read, or null. */
+    private static MessageIndex index;
+
+    /** The stamps of the log and the index when they were read. */
+    private final Object logStamp, indexStamp;
+    /** The contents of the log. */
+    private final MappedByteBuffer log;
+    /** The contents of the index. */
+    private final MappedByteBuffer data;
+    /** The number of records the index covers. */
+    private final int count;
+    /** The length of the log the index covers. */
+    private final int covered;
+    /** The number of slots in the hash table, a power of two. */
+    private final int tableSize;
+    /** The number of trigrams. */
+    private final int trigrams;
+    /** Offsets in DATA of the record offsets, the hash table, the trigrams,
+     *  the starts of their postings, and the postings. */
+    private final int offsets, table, keys, starts, postings;
+
+    /** The index and log as they are stored now. */
+    private MessageIndex() {
+        logStamp = FileCache.stamp(LOG_FILE);
+        indexStamp = FileCache.stamp(INDEX_FILE);
+        log = map(LOG_FILE);
+        data = map(INDEX_FILE);
+        if (log.getInt(0) != LOG_MAGIC || data.getInt(0) != INDEX_MAGIC
+                || data.getInt(4) != VERSION) {
+            throw error("Bad message index.");
+        }
+        count = data.getInt(8);
+        covered = data.getInt(12);
+        tableSize = data.getInt(16);
+        trigrams = data.getInt(20);
+        offsets = HEADER;
+        table = offsets + 4 * count;
+        keys = table + 4 * tableSize;
+        starts = keys + 4 * trigrams;
+        postings = starts + 4 * (trigrams + 1);
+    }
+
+    /** Returns the index, reading it again if it has changed and
+     *  rebuilding it if it is missing or out of date. */
+    private static MessageIndex get() {
+        if (index != null && Objects.equals(index.logStamp, FileCache.stamp(LOG_FILE))
+                && Objects.equals(index.indexStamp, FileCache.stamp(INDEX_FILE))) {
+            return index;
+        }
+        index = current();
+        if (index == null) {
+            // Read-only commands find too, so the files are rewritten under
+            // the exclusive lock, if no other process has rewritten them.
+            LockManager.exclusively(() -> {
+                if (current() != null) {
+                    return;
+                } else if (!LOG_FILE.exists() || tailStart() < 0) {
+                    rebuild();
+                } else if (!INDEX_FILE.exists()) {
+                    compact();
+                }
+                if (new MessageIndex().records() != CommitGraph.get().size()) {
+                    rebuild();
+                }
+            });
+            index = new MessageIndex();
+        }
+        return index;
+    }
+
+    /** Returns the index as its files hold it, or null if they are
+     *  missing, torn, or do not cover every commit in the commit-graph. */
+    private static MessageIndex current() {
+        if (!LOG_FILE.exists() || tailStart() < 0 || !INDEX_FILE.exists()) {
+            return null;
+        }
+        MessageIndex result = new MessageIndex();
+        return result.records() == CommitGraph.get().size() ? result : null;
+    }
+
+    /** Appends commit ID, whose message is MESSAGE, to the log, and
+     *  rebuilds the index if the uncovered tail has grown too long.  Does
+     *  nothing if there is no log yet; the first find writes it. */
+    static void add(String id, String message) {
+        if (!LOG_FILE.exists()) {
+            return;
+        }
+        Journal.step();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(LOG_FILE, true)))) {
+            writeRecord(out, id, message);
+        } catch (IOException excp) {
+            throw error("Cannot write message log: %s", excp.getMessage());
+        }
+        index = null;
+        if (!INDEX_FILE.exists()) {
+            return;
+        }
+        long covered = map(INDEX_FILE).getInt(12);
+        if (LOG_FILE.length() - covered > MIN_TAIL + covered / 8) {
+            compact();
+        }
+    }
+
+    /** Returns the ids of the commits whose message is MESSAGE, in order. */
+    static List<String> find(String message) {
+        MessageIndex idx = get();
+        byte[] query = message.getBytes(StandardCharsets.UTF_8);
+        List<String> result = new ArrayList<>();
+        for (int slot = hash(query, 0, query.length) & (idx.tableSize - 1);;
+             slot = (slot + 1) & (idx.tableSize - 1)) {
+            int entry = idx.data.getInt(idx.table + 4 * slot);
+            if (entry == 0) {
+                break;
+            }
+            int record = idx.data.getInt(idx.offsets + 4 * (entry - 1));
+            if (idx.messageEquals(record, query)) {
+                result.add(idx.id(record));
+            }
+        }
+        for (int record = idx.covered; record < idx.log.limit(); record = idx.next(record)) {
+            if (idx.messageEquals(record, query)) {
+                result.add(idx.id(record));
+            }
+        }
+        Collections.sort(result);
+        return result;
+    }
+
+    /** Returns the ids of the commits whose messages contain TEXT, in
+     *  order. */
+    static List<String> grep(String text) {
+        MessageIndex idx = get();
+        byte[] query = text.getBytes(StandardCharsets.UTF_8);
+        List<String> result = new ArrayList<>();
+        int start = idx.covered;
+        if (query.length < 3) {
+            start = 4;
+        } else {
+            for (int record : idx.candidates(query)) {
+                int offset = idx.data.getInt(idx.offsets + 4 * record);
+                if (idx.messageContains(offset, query)) {
+                    result.add(idx.id(offset));
+                }
+            }
+        }
+        for (int record = start; record < idx.log.limit(); record = idx.next(record)) {
+            if (idx.messageContains(record, query)) {
+                result.add(idx.id(record));
+            }
+        }
+        Collections.sort(result);
+        return result;
+    }
+
+    /** Returns the covered records whose messages hold every trigram of
+     *  QUERY, by intersecting their postings, shortest first. */
+    private int[] candidates(byte[] query) {
+        int[] grams = trigramsOf(query, 0, query.length);
+        int[][] ranges = new int[grams.length][];
+        for (int i = 0; i < grams.length; i += 1) {
+            int k = findTrigram(grams[i]);
+            if (k < 0) {
+                return new int[0];
+            }
+            ranges[i] = new int[] {data.getInt(starts + 4 * k), data.getInt(starts + 4 * k + 4)};
+        }
+        Arrays.sort(ranges, (a, b) -> Integer.compare(a[1] - a[0], b[1] - b[0]));
+        int[] result = new int[ranges[0][1] - ranges[0][0]];
+        for (int i = 0; i < result.length; i += 1) {
+            result[i] = data.getInt(postings + 4 * (ranges[0][0] + i));
+        }
+        int n = result.length;
+        for (int r = 1; r < ranges.length && n > 0; r += 1) {
+            int kept = 0;
+            int p = ranges[r][0];
+            for (int i = 0; i < n; i += 1) {
+                while (p < ranges[r][1] && data.getInt(postings + 4 * p) < result[i]) {
+                    p += 1;
+                }
+                if (p < ranges[r][1] && data.getInt(postings + 4 * p) == result[i]) {
+                    result[kept++] = result[i];
+                }
+            }
+            n = kept;
+        }
+        return Arrays.copyOf(result, n);
+    }
+
+    /** Returns the position of trigram GRAM among the trigrams, or -1. */
+    private int findTrigram(int gram) {
+        int lo = 0, hi = trigrams - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int key = data.getInt(keys + 4 * mid);
+            if (key < gram) {
+                lo = mid + 1;
+            } else if (key > gram) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /** Returns the number of records in the log. */
+    private int records() {
+        int n = count;
+        for (int record = covered; record < log.limit(); record = next(record)) {
+            n += 1;
+        }
+        return n;
+    }
+
+    /** Returns the offset of the record after the one at RECORD. */
+    private int next(int record) {
+        return record + IdIndex.ID_BYTES + 4 + log.getInt(record + IdIndex.ID_BYTES);
+    }
+
+    /** Returns the id in the record at RECORD. */
+    private String id(int record) {
+        byte[] id = new byte[IdIndex.ID_BYTES];
+        log.get(record, id);
+        return IdIndex.toHex(id);
+    }
+
+    /** Returns true iff the message of the record at RECORD is QUERY. */
+    private boolean messageEquals(int record, byte[] query) {
+        if (log.getInt(record + IdIndex.ID_BYTES) != query.length) {
+            return false;
+        }
+        int start = record + IdIndex.ID_BYTES + 4;
+        for (int i = 0; i < query.length; i += 1) {
+            if (log.get(start + i) != query[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Returns true iff the message of the record at RECORD contains
+     *  QUERY. */
+    private boolean messageContains(int record, byte[] query) {
+        int start = record + IdIndex.ID_BYTES + 4;
+        int last = start + log.getInt(record + IdIndex.ID_BYTES) - query.length;
+        for (int at = start; at <= last; at += 1) {
+            int i = 0;
+            while (i < query.length && log.get(at + i) == query[i]) {
+                i += 1;
+            }
+            if (i == query.length) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Returns the offset in the log at which the index stops covering
+     *  it, 4 if there is no index, or -1 if the log is torn. */
+    private static int tailStart() {
+        MappedByteBuffer log = map(LOG_FILE);
+        int end = 4;
+        if (INDEX_FILE.exists()) {
+            MappedByteBuffer idx = map(INDEX_FILE);
+            end = idx.getInt(0) == INDEX_MAGIC && idx.getInt(4) == VERSION ? idx.getInt(12) : 4;
+        }
+        if (log.limit() < 4 || log.getInt(0) != LOG_MAGIC || end > log.limit()) {
+            return -1;
+        }
+        for (int record = end; record < log.limit();) {
+            if (record + IdIndex.ID_BYTES + 4 > log.limit()) {
+                return -1;
+            }
+            record += IdIndex.ID_BYTES + 4 + log.getInt(record + IdIndex.ID_BYTES);
+            if (record > log.limit()) {
+                return -1;
+            }
+        }
+        return end;
+    }
+
+    /** Removes the records of the commits IDS from the log and writes an
+     *  index covering the rest. */
+    static void remove(Set<String> ids) {
+        if (!LOG_FILE.exists() || tailStart() < 0) {
+            LOG_FILE.delete();
+            INDEX_FILE.delete();
+            return;
+        }
+        MappedByteBuffer log = map(LOG_FILE);
+        File tmp = Journal.tempFile(LOG_FILE);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(tmp)))) {
+            out.writeInt(LOG_MAGIC);
+            byte[] id = new byte[IdIndex.ID_BYTES];
+            for (int record = 4; record < log.limit(); record += IdIndex.ID_BYTES + 4
+                     + log.getInt(record + IdIndex.ID_BYTES)) {
+                log.get(record, id);
+                if (!ids.contains(IdIndex.toHex(id))) {
+                    out.write(id);
+                    byte[] message = message(log, record);
+                    out.writeInt(message.length);
+                    out.write(message);
+                }
+            }
+        } catch (IOException excp) {
+            throw error("Cannot write message log: %s", excp.getMessage());
+        }
+        INDEX_FILE.delete();
+        Journal.move(tmp, LOG_FILE);
+        compact();
+    }
+
+    /** Writes a log holding every commit in the repository, then an index
+     *  covering all of it. */
+    static void rebuild() {
+        File tmp = Journal.tempFile(LOG_FILE);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(tmp)))) {
+            out.writeInt(LOG_MAGIC);
+            for (String id : ObjectStore.COMMITS.ids()) {
+                writeRecord(out, id, Repository.loadCommit(id).message());
+            }
+        } catch (IOException excp) {
+            throw error("Cannot write message log: %s", excp.getMessage());
+        }
+        INDEX_FILE.delete();
+        Journal.move(tmp, LOG_FILE);
+        compact();
+    }
+
+    /** Writes an index covering the whole log. */
+    private static void compact() {
+        MappedByteBuffer log = map(LOG_FILE);
+        List<Integer> offsets = new ArrayList<>();
+        HashMap<Integer, int[]> postings = new HashMap<>();
+        for (int record = 4; record < log.limit(); record += IdIndex.ID_BYTES + 4
+                 + log.getInt(record + IdIndex.ID_BYTES)) {
+            int ordinal = offsets.size();
+            offsets.add(record);
+            byte[] message = message(log, record);
+            for (int gram : trigramsOf(message, 0, message.length)) {
+                int[] list = postings.computeIfAbsent(gram, k -> new int[4]);
+                if (list[0] + 1 == list.length) {
+                    list = Arrays.copyOf(list, list.length * 2);
+                    postings.put(gram, list);
+                }
+                list[0] += 1;
+                list[list[0]] = ordinal;
+            }
+        }
+
+        int tableSize = Integer.highestOneBit(Math.max(offsets.size(), 1) * 2) * 2;
+        int[] table = new int[tableSize];
+        for (int ordinal = 0; ordinal < offsets.size(); ordinal += 1) {
+            byte[] message = message(log, offsets.get(ordinal));
+            int slot = hash(message, 0, message.length) & (tableSize - 1);
+            while (table[slot] != 0) {
+                slot = (slot + 1) & (tableSize - 1);
+            }
+            table[slot] = ordinal + 1;
+        }
+        Integer[] grams = postings.keySet().toArray(new Integer[0]);
+        Arrays.sort(grams);
+
+        File tmp = Journal.tempFile(INDEX_FILE);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(tmp)))) {
+            out.writeInt(INDEX_MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(offsets.size());
+            out.writeInt(log.limit());
+            out.writeInt(tableSize);
+            out.writeInt(grams.length);
+            for (int offset : offsets) {
+                out.writeInt(offset);
+            }
+            for (int slot : table) {
+                out.writeInt(slot);
+            }
+            for (int gram : grams) {
+                out.writeInt(gram);
+            }
+            int start = 0;
+            for (int gram : grams) {
+                out.writeInt(start);
+                start += postings.get(gram)[0];
+            }
+            out.writeInt(start);
+            for (int gram : grams) {
+                int[] list = postings.get(gram);
+                for (int i = 1; i <= list[0]; i += 1) {
+                    out.writeInt(list[i]);
+                }
+            }
+        } catch (IOException excp) {
+            throw error("Cannot write message index: %s", excp.getMessage());
+        }
+        Journal.move(tmp, INDEX_FILE);
+        index = null;
+    }
+
+    /** Writes a log record for commit ID with MESSAGE to OUT. */
+    private static void writeRecord(DataOutputStream out, String id, String message)
+            throws IOException {
+        byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+        out.write(IdIndex.toBytes(id));
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /** Returns the message of the record at RECORD in LOG. */
+    private static byte[] message(MappedByteBuffer log, int record) {
+        byte[] message = new byte[log.getInt(record + IdIndex.ID_BYTES)];
+        log.get(record + IdIndex.ID_BYTES + 4, message);
+        return message;
+    }
+
+    /** Returns the distinct trigrams of BYTES[FROM..TO), in ascending
+     *  order. */
+    private static int[] trigramsOf(byte[] bytes, int from, int to) {
+        int[] grams = new int[Math.max(to - from - 2, 0)];
+        for (int i = 0; i < grams.length; i += 1) {
+            grams[i] = (bytes[from + i] & 0xff) << 16 | (bytes[from + i + 1] & 0xff) << 8
+                    | (bytes[from + i + 2] & 0xff);
+        }
+        Arrays.sort(grams);
+        int n = 0;
+        for (int i = 0; i < grams.length; i += 1) {
+            if (n == 0 || grams[n - 1] != grams[i]) {
+                grams[n++] = grams[i];
+            }
+        }
+        return Arrays.copyOf(grams, n);
+    }
+
+    /** Returns the FNV-1a hash of BYTES[FROM..TO). */
+    private static int hash(byte[] bytes, int from, int to) {
+        int h = 0x811c9dc5;
+        for (int i = from; i < to; i += 1) {
+            h = (h ^ (bytes[i] & 0xff)) * 0x01000193;
+        }
+        return h;
+    }
+
+    /** Returns the contents of FILE, mapped into memory. */
+    private static MappedByteBuffer map(File file) {
+        try (FileChannel channel = FileChannel.open(file.toPath())) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException excp) {
+            throw error("Cannot read %s.", file.getName());
+        }
+    }
+}
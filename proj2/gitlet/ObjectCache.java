@@ -0,0 +1,124 @@
+package gitlet;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/** A cache of the commits, trees and blobs read from the object store,
+ *  holding the most recently used ones up to a budget of bytes.  The
+ *  budget is taken from the gitlet.cache.bytes property or the
+ *  GITLET_CACHE_BYTES environment variable, and is 64 MiB otherwise.
+ *  Objects never change once saved, so a cached object is good for as
+ *  long as it stays in the cache, including across the commands of a
+ *  daemon.  Cached objects are shared and must not be modified.
+ *
+ *  @author alysa liu
+ */
+class ObjectCache {
+
+    /** Kind of a commit. */
+    static final int COMMIT = 0;
+    /** Kind of a tree. */
+    static final int TREE = 1;
+    /** Kind of a blob's contents. */
+    static final int BLOB = 2;
+    /** Names of the kinds, for stats. */
+    private static final String[] KINDS = {"commits", "trees", "blobs"};
+
+    /** The budget used if none is configured. */
+    private static final long DEFAULT_BUDGET = 64 << 20;
+    /** The most bytes the cached objects may take. */
+    private static final long BUDGET = budget();
+
+    /** The cached objects, keyed by kind and id, least recently used
+     *  first. */
+    private static final LinkedHashMap<String, Object[]> ENTRIES =
+        new LinkedHashMap<>(256, 0.75f, true);
+    /** The total weight of the cached objects. */
+    private static long weight;
+    /** Number of lookups that found their object, by kind. */
+    private static final long[] HITS = new long[KINDS.length];
+    /** Number of lookups that did not, by kind. */
+    private static final long[] MISSES = new long[KINDS.length];
+
+    /** Returns the cached object of KIND with id ID, or null. */
+    static synchronized Object get(int kind, String id) {
+        Object[] entry = ENTRIES.get(kind + id);
+        if (entry == null) {
+            MISSES[kind] += 1;
+            return null;
+        }
+        HITS[kind] += 1;
+        return entry[0];
+    }
+
+    /** Caches VALUE, which takes about WEIGHT bytes, as the object of KIND
+     *  with id ID, evicting the least recently used objects as needed.
+     *  Objects too large for the whole budget are not cached. */
+    static synchronized void put(int kind, String id, Object value, long weight) {
+        if (weight > BUDGET) {
+            remove(kind + id);
+            return;
+        }
+        Object[] old = ENTRIES.put(kind + id, new Object[] {value, weight});
+        if (old != null) {
+            ObjectCache.weight -= (Long) old[1];
+        }
+        ObjectCache.weight += weight;
+        Iterator<Object[]> eldest = ENTRIES.values().iterator();
+        while (ObjectCache.weight > BUDGET) {
+            ObjectCache.weight -= (Long) eldest.next()[1];
+            eldest.remove();
+        }
+    }
+
+    /** Records that the object of KIND with id ID, if cached, now takes
+     *  about WEIGHT bytes. */
+    static synchronized void reweigh(int kind, String id, long weight) {
+        Object[] entry = ENTRIES.get(kind + id);
+        if (entry != null) {
+            put(kind, id, entry[0], weight);
+        }
+    }
+
+    /** Removes the entry with KEY, if any. */
+    private static void remove(String key) {
+        Object[] old = ENTRIES.remove(key);
+        if (old != null) {
+            weight -= (Long) old[1];
+        }
+    }
+
+    /** Returns the hits and misses of each kind, and the bytes in use. */
+    static synchronized String stats() {
+        StringBuilder result = new StringBuilder();
+        for (int kind = 0; kind < KINDS.length; kind += 1) {
+            result.append(String.format("%s: %d hits, %d misses; ",
+                    KINDS[kind], HITS[kind], MISSES[kind]));
+        }
+        return result.append(String.format("%d of %d bytes cached", weight, BUDGET)).toString();
+    }
+
+    /** Returns the hits and misses of each kind, and the bytes in use, as
+     *  a JSON object. */
+    static synchronized String json() {
+        StringBuilder result = new StringBuilder("{");
+        for (int kind = 0; kind < KINDS.length; kind += 1) {
+            result.append(String.format("\"%s\":{\"hits\":%d,\"misses\":%d},",
+                    KINDS[kind], HITS[kind], MISSES[kind]));
+        }
+        return result.append(String.format("\"bytes\":%d}", weight)).toString();
+    }
+
+    /** Returns the configured budget. */
+    private static long budget() {
+        String value = System.getProperty("gitlet.cache.bytes", System.getenv("GITLET_CACHE_BYTES"));
+        if (value != null) {
+            try {
+                return Long.parseLong(value.trim());
+            } catch (NumberFormatException excp) {
+                System.err.println("Ignoring bad cache size " + value + ".");
+            }
+        }
+        return DEFAULT_BUDGET;
+    }
+}
@@ -0,0 +1,148 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import static gitlet.Utils.*;
+
+/** A directory of objects stored under their ids.  Objects are sharded
+ *  into up to 256 subdirectories named by the first two digits of their
+ *  ids, so that no one directory grows too large to list or search.
+ *
+ *  @author alysa liu
+ */
+class ObjectStore {
+
+    /** The store of commits. */
+    static final ObjectStore COMMITS = new ObjectStore(Repository.COMMITS_DIR);
+    /** The store of loose blobs. */
+    static final ObjectStore BLOBS = new ObjectStore(Repository.BLOBS_DIR);
+    /** The store of trees. */
+    static final ObjectStore TREES = new ObjectStore(Tree.TREES_DIR);
+
+    /** The directory of this store. */
+    private final File dir;
+
+    /** A store of the objects in DIR. */
+    ObjectStore(File dir) {
+        this.dir = dir;
+    }
+
+    /** Returns the file that holds object ID. */
+    File file(String id) {
+        return join(dir, id.substring(0, 2), id.substring(2));
+    }
+
+    /** Returns true iff object ID is in this store. */
+    boolean contains(String id) {
+        return file(id).isFile();
+    }
+
+    /** Returns the contents of object ID. */
+    byte[] readBytes(String id) {
+        return readContents(file(id));
+    }
+
+    /** Saves the concatenation of CONTENTS, as for writeContents, as
+     *  object ID. */
+    void writeBytes(String id, Object... contents) {
+        File target = file(id);
+        target.getParentFile().mkdirs();
+        File tmp = join(dir, "tmp-" + id);
+        writeContents(tmp, contents);
+        Journal.install(tmp, target);
+    }
+
+    /** Saves the contents of SOURCE as object ID, copying it from file to
+     *  file without reading it into memory. */
+    void copyIn(String id, File source) {
+        File target = file(id);
+        target.getParentFile().mkdirs();
+        File tmp = join(dir, "tmp-" + id);
+        transfer(source, tmp);
+        Journal.install(tmp, target);
+    }
+
+    /** Writes the contents of object ID to TARGET, copying it from file to
+     *  file without reading it into memory. */
+    void copyOut(String id, File target) {
+        transfer(file(id), target);
+    }
+
+    /** Replaces the contents of TARGET with those of SOURCE. */
+    private static void transfer(File source, File target) {
+        try (FileChannel in = FileChannel.open(source.toPath());
+             FileChannel out = FileChannel.open(target.toPath(), StandardOpenOption.CREATE,
+                     StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            long size = in.size();
+            long done = 0;
+            while (done < size) {
+                done += in.transferTo(done, size - done, out);
+            }
+        } catch (IOException excp) {
+            throw error("Cannot copy %s: %s", source.getName(), excp.getMessage());
+        }
+    }
+
+    /** Removes object ID, if present. */
+    void delete(String id) {
+        file(id).delete();
+    }
+
+    /** Returns the ids of all objects in this store, in order. */
+    List<String> ids() {
+        List<String> result = new ArrayList<>();
+        for (int b = 0; b < 256; b += 1) {
+            String shard = String.format("%02x", b);
+            List<String> names = plainFilenamesIn(join(dir, shard));
+            if (names != null) {
+                for (String name : names) {
+                    result.add(shard + name);
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Returns true iff some object is kept directly in this store's
+     *  directory, as older repositories did, and so must be migrated
+     *  before the store can be used. */
+    boolean unsharded() {
+        List<String> names = plainFilenamesIn(dir);
+        if (names != null) {
+            for (String name : names) {
+                if (name.length() == UID_LENGTH) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /** Moves any objects kept directly in this store's directory, as
+     *  older repositories did, into their shards.  Returns the number of
+     *  objects moved. */
+    int migrate() {
+        List<String> names = plainFilenamesIn(dir);
+        int moved = 0;
+        if (names == null) {
+            return moved;
+        }
+        for (String name : names) {
+            File flat = join(dir, name);
+            if (name.length() != UID_LENGTH) {
+                continue;
+            }
+            File sharded = file(name);
+            sharded.getParentFile().mkdirs();
+            if (sharded.exists() || flat.renameTo(sharded)) {
+                flat.delete();
+                moved += 1;
+            }
+        }
+        return moved;
+    }
+}
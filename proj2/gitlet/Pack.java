@@ -0,0 +1,395 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+import static gitlet.Utils.*;
+
+/** A pack of blobs, stored as a pair of files in the packs directory.
+ *  pack-ID.pack holds the blobs, each zlib-compressed and either whole or
+ *  as a delta against another blob of the same pack.  Each entry is a type
+ *  byte, the size of the blob, the offset of the base entry for a delta,
+ *  and a zlib stream of the blob or delta.  pack-ID.idx holds a
+ *  fanout table on the first byte of the blob ids, the sorted ids, and the
+ *  offset of each blob in the .pack file.
+ *
+ *  @author alysa liu
+ */
+class Pack {
+
+    /** The directory of packs. */
+    static final File PACKS_DIR = join(Repository.GITLET_DIR, "packs");
+    /** Longest chain of deltas allowed before a blob is stored whole. */
+    static final int MAX_DEPTH = 50;
+    /** Largest blob that is stored as, or used as the base of, a delta.
+     *  Larger blobs are streamed into and out of packs whole. */
+    static final long DELTA_LIMIT = 16 << 20;
+
+    /** Magic number at the start of a .pack file. */
+    private static final int PACK_MAGIC = 0x47504b31;
+    /** Version of the .pack format. */
+    private static final int VERSION = 2;
+    /** Size of the buffers used to stream blobs. */
+    private static final int BUFFER = 1 << 16;
+    /** Magic number at the start of a .idx file. */
+    private static final int IDX_MAGIC = 0x47494431;
+    /** Entry type of a blob stored whole. */
+    private static final byte WHOLE = 0;
+    /** Entry type of a blob stored as a delta. */
+    private static final byte DELTA = 1;
+
+    /** The packs currently in the packs directory, or null if not yet read. */
+    private static List<Pack> packs;
+    /** The stamp of the packs directory when PACKS was read. */
+    private static Object packsStamp;
+
+    /** The .pack file of this Pack. */
+    private final File packFile;
+    /** The contents of the .idx file of this Pack. */
+    private final MappedByteBuffer idx;
+    /** The ids of the blobs in this Pack. */
+    private final IdIndex ids;
+
+    /** A Pack read from the index file IDXFILE. */
+    private Pack(File idxFile) {
+        String name = idxFile.getName();
+        packFile = join(idxFile.getParentFile(), name.substring(0, name.length() - 4) + ".pack");
+        try (FileChannel channel = FileChannel.open(idxFile.toPath())) {
+            idx = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException excp) {
+            throw error("Cannot read pack index %s.", name);
+        }
+        if (idx.getInt(0) != IDX_MAGIC) {
+            throw error("Bad pack index %s.", name);
+        }
+        ids = new IdIndex(idx);
+        try (DataInputStream in = new DataInputStream(new FileInputStream(packFile))) {
+            if (in.readInt() != PACK_MAGIC || in.readInt() != VERSION) {
+                throw error("Unsupported pack format in %s.", packFile.getName());
+            }
+        } catch (IOException excp) {
+            throw error("Cannot read %s.", packFile.getName());
+        }
+    }
+
+    /** Returns all packs in the packs directory.  Blobs are looked up
+     *  from several threads at once, so the list is only published once
+     *  it is complete. */
+    static synchronized List<Pack> packs() {
+        Object stamp = FileCache.stamp(PACKS_DIR);
+        if (packs == null || !Objects.equals(stamp, packsStamp)) {
+            List<Pack> found = new ArrayList<>();
+            List<String> names = plainFilenamesIn(PACKS_DIR);
+            if (names != null) {
+                for (String name : names) {
+                    if (name.endsWith(".idx")) {
+                        found.add(new Pack(join(PACKS_DIR, name)));
+                    }
+                }
+            }
+            packs = found;
+            packsStamp = stamp;
+        }
+        return packs;
+    }
+
+    /** Makes the next call to packs read the packs directory again.  Takes
+     *  the same lock as packs, which may be running on another thread. */
+    private static synchronized void forget() {
+        packs = null;
+    }
+
+    /** Returns true iff blob ID is in some pack. */
+    static boolean contains(String id) {
+        for (Pack pack : packs()) {
+            if (pack.ids.find(id) >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Returns a stream of the contents of blob ID, or null if it is in
+     *  no pack. */
+    static InputStream open(String id) {
+        for (Pack pack : packs()) {
+            int row = pack.ids.find(id);
+            if (row >= 0) {
+                try {
+                    return pack.openAt(pack.offset(row));
+                } catch (IOException excp) {
+                    throw error("Cannot read %s: %s", pack.packFile.getName(),
+                            excp.getMessage());
+                }
+            }
+        }
+        return null;
+    }
+
+    /** Returns the size of blob ID in bytes, or -1 if it is in no pack. */
+    static long size(String id) {
+        for (Pack pack : packs()) {
+            int row = pack.ids.find(id);
+            if (row >= 0) {
+                return pack.sizeAt(pack.offset(row));
+            }
+        }
+        return -1;
+    }
+
+    /** Returns the contents of blob ID, or null if it is in no pack. */
+    static byte[] read(String id) {
+        for (Pack pack : packs()) {
+            int row = pack.ids.find(id);
+            if (row >= 0) {
+                return pack.readAt(pack.offset(row));
+            }
+        }
+        return null;
+    }
+
+    /** Returns the size of this pack's files in bytes. */
+    long size() {
+        return packFile.length() + idx.capacity();
+    }
+
+    /** Returns the ids of all packed blobs. */
+    static List<String> ids() {
+        List<String> result = new ArrayList<>();
+        for (Pack pack : packs()) {
+            result.addAll(pack.blobs());
+        }
+        return result;
+    }
+
+    /** Returns the ids of the blobs in this pack. */
+    List<String> blobs() {
+        List<String> result = new ArrayList<>();
+        for (int row = 0; row < ids.size(); row += 1) {
+            result.add(ids.id(row));
+        }
+        return result;
+    }
+
+    /** Returns the time this pack was written, in milliseconds. */
+    long modified() {
+        return packFile.lastModified();
+    }
+
+    /** Writes every blob in CHAINS and LOOSE into a single new pack, named
+     *  by the hash of its contents and installed index last, then removes
+     *  the old packs and the loose blob files in LOOSE.  Each list in
+     *  CHAINS holds the versions of one file, newest first; every version
+     *  after the first is stored as a delta against the one before it when
+     *  that saves space.  Blobs larger than DELTA_LIMIT are streamed into
+     *  the pack whole.  Returns the size of the new pack in bytes.  If
+     *  there are no blobs to pack, the old packs are just removed. */
+    static long repack(List<List<String>> chains, List<String> loose) {
+        if (chains.isEmpty() && loose.isEmpty()) {
+            for (Pack pack : packs()) {
+                pack.delete();
+            }
+            forget();
+            return 0;
+        }
+        PACKS_DIR.mkdir();
+        LinkedHashMap<String, Long> offsets = new LinkedHashMap<>();
+        HashMap<String, Integer> depths = new HashMap<>();
+        File tmpPack = join(PACKS_DIR, "tmp-pack");
+        try (FileOutputStream file = new FileOutputStream(tmpPack);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file))) {
+            out.writeInt(PACK_MAGIC);
+            out.writeInt(VERSION);
+            List<List<String>> all = new ArrayList<>(chains);
+            for (String id : loose) {
+                all.add(List.of(id));
+            }
+            for (List<String> chain : all) {
+                String baseId = null;
+                byte[] base = null;
+                for (String id : chain) {
+                    long size = Repository.blobSize(id);
+                    if (size > DELTA_LIMIT) {
+                        if (!offsets.containsKey(id)) {
+                            out.flush();
+                            offsets.put(id, file.getChannel().position());
+                            out.writeByte(WHOLE);
+                            out.writeLong(size);
+                            try (InputStream in = Repository.openBlob(id)) {
+                                deflate(in, out);
+                            }
+                            depths.put(id, 0);
+                        }
+                        baseId = null;
+                        base = null;
+                        continue;
+                    }
+                    byte[] contents = Repository.loadBlobBytes(id);
+                    if (!offsets.containsKey(id)) {
+                        out.flush();
+                        offsets.put(id, file.getChannel().position());
+                        byte[] delta = null;
+                        if (base != null && depths.get(baseId) < MAX_DEPTH) {
+                            delta = Delta.encode(base, contents);
+                            if (delta.length > contents.length * 3 / 4) {
+                                delta = null;
+                            }
+                        }
+                        if (delta == null) {
+                            out.writeByte(WHOLE);
+                            out.writeLong(size);
+                            deflate(new ByteArrayInputStream(contents), out);
+                            depths.put(id, 0);
+                        } else {
+                            out.writeByte(DELTA);
+                            out.writeLong(size);
+                            out.writeLong(offsets.get(baseId));
+                            deflate(new ByteArrayInputStream(delta), out);
+                            depths.put(id, depths.get(baseId) + 1);
+                        }
+                    }
+                    baseId = id;
+                    base = contents;
+                }
+            }
+        } catch (IOException excp) {
+            throw error("Cannot write pack: %s", excp.getMessage());
+        }
+
+        String name = "pack-" + sha1Contents(tmpPack);
+        File packFile = join(PACKS_DIR, name + ".pack");
+        File idxFile = join(PACKS_DIR, name + ".idx");
+        if (idxFile.exists()) {
+            tmpPack.delete();
+        } else {
+            String[] ids = offsets.keySet().toArray(new String[0]);
+            Arrays.sort(ids);
+            File tmpIdx = join(PACKS_DIR, "tmp-idx");
+            writeIndex(tmpIdx, ids, offsets);
+            Journal.sync(tmpPack);
+            Journal.sync(tmpIdx);
+            try {
+                Files.move(tmpPack.toPath(), packFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+                Files.move(tmpIdx.toPath(), idxFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException excp) {
+                throw error("Cannot install pack: %s", excp.getMessage());
+            }
+            // The loose blobs go next, so the pack must be on disk first.
+            Journal.sync(PACKS_DIR);
+        }
+
+        for (Pack pack : packs()) {
+            if (!pack.packFile.equals(packFile)) {
+                pack.delete();
+            }
+        }
+        forget();
+        for (String id : offsets.keySet()) {
+            ObjectStore.BLOBS.delete(id);
+        }
+        return packFile.length();
+    }
+
+    /** Removes the files of this pack, the index first, so that the pack
+     *  is never listed without its .pack file. */
+    private void delete() {
+        join(PACKS_DIR, packFile.getName().replace(".pack", ".idx")).delete();
+        packFile.delete();
+    }
+
+    /** Writes an index of IDS, which are sorted, at OFFSETS to FILE. */
+    private static void writeIndex(File file, String[] ids, Map<String, Long> offsets) {
+        byte[][] keys = new byte[ids.length][];
+        for (int i = 0; i < ids.length; i += 1) {
+            keys[i] = IdIndex.toBytes(ids[i]);
+        }
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file)))) {
+            IdIndex.write(out, IDX_MAGIC, keys);
+            for (String id : ids) {
+                out.writeLong(offsets.get(id));
+            }
+        } catch (IOException excp) {
+            throw error("Cannot write pack index: %s", excp.getMessage());
+        }
+    }
+
+    /** Writes the contents of IN to OUT as a zlib stream, leaving OUT open. */
+    private static void deflate(InputStream in, OutputStream out) throws IOException {
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        try {
+            DeflaterOutputStream compressed = new DeflaterOutputStream(out, deflater, BUFFER);
+            in.transferTo(compressed);
+            compressed.finish();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /** Returns the offset in the .pack file of the blob at ROW. */
+    private long offset(int row) {
+        return idx.getLong(ids.end() + row * 8);
+    }
+
+    /** Returns the contents of the blob at OFFSET of the .pack file. */
+    private byte[] readAt(long offset) {
+        try (InputStream in = openAt(offset)) {
+            return in.readAllBytes();
+        } catch (IOException excp) {
+            throw error("Cannot read %s: %s", packFile.getName(), excp.getMessage());
+        }
+    }
+
+    /** Returns a stream of the contents of the blob at OFFSET of the .pack
+     *  file.  Whole blobs are inflated as they are read; deltas, which are
+     *  never larger than DELTA_LIMIT, are resolved in memory. */
+    private InputStream openAt(long offset) throws IOException {
+        FileInputStream file = new FileInputStream(packFile);
+        file.getChannel().position(offset);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(file, BUFFER));
+        byte type = in.readByte();
+        in.readLong();
+        if (type == WHOLE) {
+            return new InflaterInputStream(in);
+        }
+        long baseOffset = in.readLong();
+        byte[] delta;
+        try (InputStream compressed = new InflaterInputStream(in)) {
+            delta = compressed.readAllBytes();
+        }
+        return new ByteArrayInputStream(Delta.apply(readAt(baseOffset), delta));
+    }
+
+    /** Returns the size of the blob at OFFSET of the .pack file. */
+    private long sizeAt(long offset) {
+        try (RandomAccessFile in = new RandomAccessFile(packFile, "r")) {
+            in.seek(offset + 1);
+            return in.readLong();
+        } catch (IOException excp) {
+            throw error("Cannot read %s: %s", packFile.getName(), excp.getMessage());
+        }
+    }
+}
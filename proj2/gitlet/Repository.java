@@ -3,17 +3,41 @@ package gitlet;
 import java.io.File;
 import static gitlet.Utils.*;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
-import java.io.Serializable;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 
 /** Represents a gitlet repository.
  * Contains the methods that actually execute commands entered by the user.
  *
  * @author alysa liu, testings
  */
-public class Repository implements Serializable {
+public class Repository {
     /** List all instance variables of the Repository class here with a useful
      * comment above them describing what that variable represents and how that
      * variable is used. We've provided two examples for you.
@@ -27,23 +51,78 @@ public class Repository implements Serializable {
     public static final File COMMITS_DIR = join(GITLET_DIR, "commits");
     /**The directory of blobs*/
     public static final File BLOBS_DIR = join(GITLET_DIR, "blobs");
+    /** The most files diff holds diffs of at once, done or in progress. */
+    private static final int DIFF_WINDOW = 4 * Runtime.getRuntime().availableProcessors();
 
     /**Head pointer with hash of working commit.*/
     private String head;
     /**HashMap of all branches.*/
-    private HashMap branches;
+    private HashMap<String, String> branches;
     /**Current working branch.*/
     private String workingBranch;
     /** Files staged for addition*/
-    private HashMap stagedAddition;
+    private HashMap<String, String> stagedAddition;
     /** Files staged for removal*/
-    private HashMap stagedRemoval;
+    private HashMap<String, String> stagedRemoval;
+
+    /** Returns the contents of the file that holds this Repository. */
+    byte[] encode() {
+        return Codec.encode(Codec.REPOSITORY, out -> {
+            Codec.writeId(out, head);
+            Codec.writeString(out, workingBranch);
+            Codec.writeMap(out, branches);
+            Codec.writeMap(out, stagedAddition);
+            Codec.writeMap(out, stagedRemoval);
+        });
+    }
+
+    /** Returns the Repository held in DATA, in either format. */
+    static Repository decode(byte[] data) {
+        Repository repo = new Repository();
+        if (Codec.isLegacy(data)) {
+            Legacy.Record record = (Legacy.Record) Legacy.read(data);
+            repo.head = record.string("head");
+            repo.workingBranch = record.string("workingBranch");
+            repo.branches = copy(record.map("branches"));
+            repo.stagedAddition = copy(record.map("stagedAddition"));
+            repo.stagedRemoval = copy(record.map("stagedRemoval"));
+            return repo;
+        }
+        try {
+            DataInputStream in = Codec.open(data, Codec.REPOSITORY);
+            repo.head = Codec.readId(in);
+            repo.workingBranch = Codec.readString(in);
+            repo.branches = Codec.readMap(in);
+            repo.stagedAddition = Codec.readMap(in);
+            repo.stagedRemoval = Codec.readMap(in);
+        } catch (IOException excp) {
+            throw error("Corrupt repository file.");
+        }
+        return repo;
+    }
+
+    /** Returns a copy of this Repository, with copies of its maps. */
+    Repository copy() {
+        Repository repo = new Repository();
+        repo.head = head;
+        repo.workingBranch = workingBranch;
+        repo.branches = copy(branches);
+        repo.stagedAddition = copy(stagedAddition);
+        repo.stagedRemoval = copy(stagedRemoval);
+        return repo;
+    }
+
+    /** Returns a HashMap with the entries of MAP, or null if MAP is null. */
+    private static HashMap<String, String> copy(Map<String, String> map) {
+        return map == null ? null : new HashMap<>(map);
+    }
 
     public void init() {
         if (!GITLET_DIR.exists()) {
             GITLET_DIR.mkdir();
             COMMITS_DIR.mkdir();
             BLOBS_DIR.mkdir();
+            Tree.TREES_DIR.mkdir();
             branches = new HashMap<String, String>();
             stagedAddition = new HashMap<String, String>();
             saveStagedAddition();
@@ -51,7 +130,7 @@ public class Repository implements Serializable {
             saveStagedRemoval();
             Commit initialCommit = new Commit(new Date(0), "initial commit", null, null);
             saveCommit(initialCommit);
-            head = hashCommit(initialCommit);
+            head = initialCommit.id();
             workingBranch = "master";
             branches.put(workingBranch, head);
             saveBranches();
@@ -61,27 +140,39 @@ public class Repository implements Serializable {
         }
     }
 
-    public void add(String fileName) {
+    /** Stages the working files that SPECS name, each a file, a directory
+     *  or a glob as for WorkingTree.match.  The staging area is loaded and
+     *  saved once for all of them, the files are hashed in parallel, and
+     *  each new blob is saved once however many files hold it.  Nothing is
+     *  staged if some spec names no file. */
+    public void add(String... specs) {
+        TreeSet<String> fileNames = new TreeSet<>();
+        for (String spec : specs) {
+            List<String> matched = WorkingTree.match(spec);
+            if (matched.isEmpty()) {
+                System.out.println("File does not exist.");
+                return;
+            }
+            fileNames.addAll(matched);
+        }
         loadStagedAddition();
         loadStagedRemoval();
-        File addedFile = join(CWD, fileName);
-        String addedFileBlob = "File does not exist.";
-        if (!addedFile.exists()) {
-            System.out.println(addedFileBlob);
-            return;
-        } else {
-            addedFileBlob = readContentsAsString(addedFile);
-        }
         Commit workingCommit = loadCommit(head);
-        Object currentBlob = workingCommit.trackedFiles().get(fileName);
-        if (currentBlob != null && ((String) currentBlob).equals(sha1(addedFileBlob))) {
-            stagedAddition.remove(fileName);
-            stagedRemoval.remove(fileName);
-        } else {
-            stagedAddition.put(fileName, sha1(addedFileBlob));
+        LinkedHashMap<String, String> newBlobs = new LinkedHashMap<>();
+        for (Map.Entry<String, String> file
+                : WorkingTree.hash(new ArrayList<>(fileNames)).entrySet()) {
+            String fileName = file.getKey();
+            String addedFileBlob = file.getValue();
             stagedRemoval.remove(fileName);
-            saveBlob(addedFileBlob);
+            if (addedFileBlob.equals(workingCommit.blob(fileName))) {
+                stagedAddition.remove(fileName);
+            } else {
+                stagedAddition.put(fileName, addedFileBlob);
+                newBlobs.putIfAbsent(addedFileBlob, fileName);
+            }
         }
+        newBlobs.entrySet().parallelStream()
+                .forEach(blob -> saveBlob(join(CWD, blob.getValue()), blob.getKey()));
         saveStagedAddition();
         saveStagedRemoval();
     }
@@ -91,15 +182,15 @@ public class Repository implements Serializable {
         loadStagedAddition();
         Commit workingCommit = loadCommit(head);
         File removedFile = join(CWD, fileName);
-        String removedFileBlob = "File doesn't exist";
+        String removedFileBlob = sha1("File doesn't exist");
         if (removedFile.exists()) {
-            removedFileBlob = readContentsAsString(removedFile);
+            removedFileBlob = StatCache.get().hash(fileName, removedFile);
         }
         if (stagedAddition.containsKey(fileName)) {
             stagedAddition.remove(fileName);
-        } else if (workingCommit.trackedFiles().containsKey(fileName)) {
-            stagedRemoval.put(fileName, sha1(removedFileBlob));
-            restrictedDelete(fileName);
+        } else if (workingCommit.blob(fileName) != null) {
+            stagedRemoval.put(fileName, removedFileBlob);
+            WorkingTree.delete(fileName);
         } else {
             System.out.println("No reason to remove the file.");
         }
@@ -108,23 +199,28 @@ public class Repository implements Serializable {
     }
 
     public void commit(String message) {
+        commit(message, null);
+    }
+
+    /** Commits the staging area with MESSAGE, recording SECONDARY (which may
+     *  be null) as the second parent. */
+    private void commit(String message, String secondary) {
         if (message.length() == 0) {
             System.out.println("Please enter a commit message.");
+            return;
         }
-        Commit newCommit = new Commit(new Date(), message, head, null);
         loadStagedAddition();
         loadStagedRemoval();
 
-        if (stagedRemoval.isEmpty() && stagedAddition.isEmpty()) {
-            if (!message.substring(0, 6).equals("Merged")) {
-                System.out.println("No changes added to the commit.");
-            }
+        if (stagedRemoval.isEmpty() && stagedAddition.isEmpty() && secondary == null) {
+            System.out.println("No changes added to the commit.");
+            return;
         }
+        Commit newCommit = new Commit(new Date(), message, head, secondary);
 
-        newCommit.addToStagingArea(stagedAddition);
-        newCommit.rmFromStagingArea(stagedRemoval);
+        newCommit.applyStaging(stagedAddition, stagedRemoval);
         saveCommit(newCommit);
-        head = hashCommit(newCommit);
+        head = newCommit.id();
         branches.put(workingBranch, head);
         saveBranches();
         stagedAddition.clear();
@@ -133,56 +229,102 @@ public class Repository implements Serializable {
         saveStagedRemoval();
     }
 
-    public void log() {
-        Commit currentCommit = loadCommit(head);
-        while (currentCommit.parent() != null) {
-            printCommit(currentCommit);
-            currentCommit = loadCommit(currentCommit.parent());
+    /** Prints the first-parent history of the head commit, newest first,
+     *  as OPTIONS ask.  The walk follows the commit-graph and stops at the
+     *  limit.  Commits older than --since are skipped rather than ending the
+     *  walk, since a commit may be older than its parent, and their times
+     *  come from the graph, so only the commits shown are read. */
+    public void log(LogOptions options) {
+        CommitGraph graph = CommitGraph.with(head);
+        PrintWriter out = logWriter();
+        int shown = 0;
+        for (int row = graph.row(head); row != CommitGraph.NONE && shown < options.limit;
+             row = graph.parent(row)) {
+            if (graph.time(row) >= options.since) {
+                printCommit(out, loadCommit(graph.id(row)), options);
+                shown += 1;
+            }
         }
-        printCommit(currentCommit);
+        out.flush();
     }
 
-    public void globalLog() {
-        if (plainFilenamesIn(COMMITS_DIR) == null) {
-            return;
-        }
-        for (String fileName : plainFilenamesIn(COMMITS_DIR)) {
-            if (!(fileName.substring(fileName.length() - 2).equals("tf"))) {
-                Commit currentCommit = loadCommit(fileName);
-                printCommit(currentCommit);
+    /** Prints every commit, newest first, as OPTIONS ask.  Commits are
+     *  ordered by the times in the commit-graph, and those made in the
+     *  same second by their generations, so a child comes before its
+     *  parent; only those shown are read. */
+    public void globalLog(LogOptions options) {
+        CommitGraph graph = CommitGraph.with(head);
+        List<Integer> rows = new ArrayList<>();
+        for (int row = 0; row < graph.size(); row += 1) {
+            if (graph.time(row) >= options.since) {
+                rows.add(row);
             }
         }
+        rows.sort(Comparator.comparingLong(graph::time)
+                .thenComparingInt(graph::generation).reversed());
+        PrintWriter out = logWriter();
+        for (int i = 0; i < rows.size() && i < options.limit; i += 1) {
+            printCommit(out, loadCommit(graph.id(rows.get(i))), options);
+        }
+        out.flush();
     }
 
     public void checkout(String commitToBeLoaded, String fileName) {
-        if (commitToBeLoaded.length() < 40) {
-            commitToBeLoaded = abbreviated(commitToBeLoaded);
-        }
-        if (!plainFilenamesIn(COMMITS_DIR).contains(commitToBeLoaded)) {
-            System.out.println("No commit with that id exists.");
+        commitToBeLoaded = resolveCommit(commitToBeLoaded);
+        if (commitToBeLoaded == null) {
             return;
         }
         Commit workingCommit = loadCommit(commitToBeLoaded);
-        if (!workingCommit.trackedFiles().containsKey(fileName)) {
+        String blob = workingCommit.blob(fileName);
+        if (blob == null) {
             System.out.println("File does not exist in that commit.");
             return;
         }
-        workingCommit.loadTrackedFiles(hashCommit(workingCommit));
-        String loadedBlob = loadBlob((String) workingCommit.trackedFiles().get(fileName));
-        File f = join(CWD, fileName);
-        writeContents(f, loadedBlob);
+        writeWorkingFile(fileName, blob);
     }
 
-    private String abbreviated(String commitToBeLoaded) {
-        for (Object file : plainFilenamesIn(COMMITS_DIR)) {
-            String name = (String) file;
-            if (commitToBeLoaded.equals(name.substring(0, commitToBeLoaded.length()))) {
-                if (!name.substring(name.length() - 2).equals("tf")) {
-                    commitToBeLoaded = name;
-                }
-            }
+    /** Points branch NAME, which is created if need be, at commit
+     *  COMMITID, moving the head along if NAME is the current branch.
+     *  Nothing else changes; RepoGenerator, which makes commits without
+     *  going through commit, uses this to place its branches. */
+    void moveBranch(String name, String commitID) {
+        loadBranches();
+        branches.put(name, commitID);
+        saveBranches();
+        if (name.equals(workingBranch)) {
+            head = commitID;
+        }
+    }
+
+    /** Writes every file of the head commit to the working directory. */
+    void writeHeadFiles() {
+        for (Map.Entry<String, String> file : loadCommit(head).trackedFiles().entrySet()) {
+            writeWorkingFile(file.getKey(), file.getValue());
         }
-        return commitToBeLoaded;
+    }
+
+    /** Replaces the working file at FILENAME, creating it and its
+     *  directories if need be, with the contents of BLOB. */
+    private static void writeWorkingFile(String fileName, String blob) {
+        File file = join(CWD, fileName);
+        file.getParentFile().mkdirs();
+        writeBlob(blob, file);
+        StatCache.get().record(fileName, file, blob);
+    }
+
+    /** Returns the full id of the one commit whose id starts with
+     *  COMMITID, which may be abbreviated.  Prints an error and returns null
+     *  if there is no such commit or more than one. */
+    private String resolveCommit(String commitID) {
+        List<String> found = CommitGraph.with(head).withPrefix(commitID, 2);
+        if (found.isEmpty()) {
+            System.out.println("No commit with that id exists.");
+            return null;
+        } else if (found.size() > 1) {
+            System.out.println("Ambiguous commit id.");
+            return null;
+        }
+        return found.get(0);
     }
 
     public void checkoutFile(String fileName) {
@@ -195,7 +337,7 @@ public class Repository implements Serializable {
 
     public void checkoutBranch(String branch) {
         loadBranches();
-        String headOfBranch = (String) branches.get(branch);
+        String headOfBranch = branches.get(branch);
 
         if (!branches.containsKey(branch)) {
             System.out.println("No such branch exists.");
@@ -207,43 +349,45 @@ public class Repository implements Serializable {
 
         Commit branchCommit = loadCommit(headOfBranch);
         Commit workingCommit = loadCommit(head);
+        List<String> workingFiles = WorkingTree.files();
+        if (untrackedInTheWay(workingCommit, branchCommit, workingFiles)) {
+            return;
+        }
+        loadStagedAddition();
 
-        for (Object file : plainFilenamesIn(CWD)) {
-            String fileName = (String) file;
-            if (!workingCommit.trackedFiles().containsKey(fileName)) {
-                if (branchCommit.trackedFiles().containsKey(fileName)) {
-                    String workingBlob = sha1(readContentsAsString(join(CWD, fileName)));
-                    String branchBlob = (String) branchCommit.trackedFiles().get(fileName);
-                    if (!workingBlob.equals(branchBlob)) {
-                        System.out.println("There is an untracked file in the way; "
-                                + "delete it, or add and commit it first.");
-                        return;
-                    }
-                }
+        TreeMap<String, String> changes = new TreeMap<>();
+        Tree.diff(workingCommit.tree(), branchCommit.tree(), "", changes);
+        Map<String, String> target = branchCommit.trackedFiles();
+        HashSet<String> present = new HashSet<>(workingFiles);
+        List<String> unchanged = new ArrayList<>();
+        for (String file : target.keySet()) {
+            if (changes.containsKey(file)) {
+                continue;
+            } else if (present.contains(file)) {
+                unchanged.add(file);
+            } else {
+                changes.put(file, target.get(file));
             }
         }
-
-        for (Object file : branchCommit.trackedFiles().keySet()) {
-            if (!branchCommit.trackedFiles().containsKey((String) file)) {
-                restrictedDelete((String) file);
+        for (Map.Entry<String, String> file : WorkingTree.hash(unchanged).entrySet()) {
+            if (!file.getValue().equals(target.get(file.getKey()))) {
+                changes.put(file.getKey(), target.get(file.getKey()));
             }
-            checkout(headOfBranch, (String) file);
         }
 
-        for (Object file : stagedAddition.keySet()) {
-            if (!branchCommit.trackedFiles().containsKey(file)) {
-                restrictedDelete((String) file);
+        for (Map.Entry<String, String> change : changes.entrySet()) {
+            if (change.getValue() == null) {
+                WorkingTree.delete(change.getKey());
+            } else {
+                writeWorkingFile(change.getKey(), change.getValue());
             }
         }
-
-        for (Object file : workingCommit.trackedFiles().keySet()) {
-            if (!branchCommit.trackedFiles().containsKey(file)) {
-                restrictedDelete((String) file);
+        for (Object file : stagedAddition.keySet()) {
+            if (!target.containsKey(file)) {
+                WorkingTree.delete((String) file);
             }
         }
 
-        File trackingHeadFiles = join(CWD, headOfBranch + "tf");
-        writeObject(trackingHeadFiles, workingCommit.trackedFiles());
         stagedAddition.clear();
         stagedRemoval.clear();
         saveStagedAddition();
@@ -263,20 +407,21 @@ public class Repository implements Serializable {
     }
 
     public void find(String message) {
-        boolean contains = false;
-        if (plainFilenamesIn(COMMITS_DIR) == null) {
-            return;
-        }
-        for (String fileName : plainFilenamesIn(COMMITS_DIR)) {
-            if (!(fileName.substring(fileName.length() - 2).equals("tf"))) {
-                Commit currentCommit = loadCommit(fileName);
-                if (currentCommit.message().equals(message)) {
-                    contains = true;
-                    System.out.println(fileName);
-                }
-            }
+        printFound(MessageIndex.find(message));
+    }
+
+    /** Prints the ids of all commits whose messages contain TEXT. */
+    public void grep(String text) {
+        printFound(MessageIndex.grep(text));
+    }
+
+    /** Prints the commit ids in FOUND, one per line, or a message if there
+     *  are none. */
+    private static void printFound(List<String> found) {
+        for (String commitID : found) {
+            System.out.println(commitID);
         }
-        if (!contains) {
+        if (found.isEmpty()) {
             System.out.println("Found no commit with that message.");
         }
     }
@@ -294,7 +439,7 @@ public class Repository implements Serializable {
         java.util.Collections.sort(forBranch);
         for (Object branch : forBranch) {
             String branchName = (String) branch;
-            String branchCode = (String) branches.get(branchName);
+            String branchCode = branches.get(branchName);
             if (branchCode.equals(head)) {
                 System.out.println("*" + branchName);
             } else {
@@ -329,12 +474,174 @@ public class Repository implements Serializable {
         }
         System.out.println();
 
+        Map<String, String> tracked = loadCommit(head).trackedFiles();
+        TreeMap<String, String> modified = new TreeMap<>();
+        TreeSet<String> untracked = new TreeSet<>();
+        // Only staged and tracked files are hashed; untracked files are
+        // known by their paths alone.
+        HashSet<String> working = new HashSet<>();
+        List<String> toHash = new ArrayList<>();
+        for (String fileName : WorkingTree.files()) {
+            working.add(fileName);
+            if (stagedAddition.containsKey(fileName)
+                    || tracked.containsKey(fileName) && !stagedRemoval.containsKey(fileName)) {
+                toHash.add(fileName);
+            } else {
+                untracked.add(fileName);
+            }
+        }
+        for (Map.Entry<String, String> file : WorkingTree.hash(toHash).entrySet()) {
+            String fileName = file.getKey();
+            String stagedBlob = stagedAddition.get(fileName);
+            String expected = stagedBlob != null ? stagedBlob : tracked.get(fileName);
+            if (!expected.equals(file.getValue())) {
+                modified.put(fileName, "modified");
+            }
+        }
+        for (String file : stagedAddition.keySet()) {
+            if (!working.contains(file)) {
+                modified.put(file, "deleted");
+            }
+        }
+        for (String file : tracked.keySet()) {
+            if (!stagedRemoval.containsKey(file) && !stagedAddition.containsKey(file)
+                    && !working.contains(file)) {
+                modified.put(file, "deleted");
+            }
+        }
+
         System.out.println("=== Modifications Not Staged For Commit ===");
+        for (Map.Entry<String, String> file : modified.entrySet()) {
+            System.out.println(file.getKey() + " (" + file.getValue() + ")");
+        }
         System.out.println();
         System.out.println("=== Untracked Files ===");
+        for (String file : untracked) {
+            System.out.println(file);
+        }
         System.out.println();
     }
 
+    /** Prints the changes in the working files since they were staged or,
+     *  if they are not staged, committed, as a unified diff.  Only staged
+     *  and tracked files are hashed, through the StatCache, and only those
+     *  whose blobs differ are read. */
+    public void diff() {
+        loadStagedAddition();
+        loadStagedRemoval();
+        TreeMap<String, String> index = new TreeMap<>(loadCommit(head).trackedFiles());
+        index.keySet().removeAll(stagedRemoval.keySet());
+        index.putAll(stagedAddition);
+        List<String> present = new ArrayList<>();
+        for (String file : index.keySet()) {
+            if (join(CWD, file).isFile()) {
+                present.add(file);
+            }
+        }
+        TreeMap<String, String> working = WorkingTree.hash(present);
+        List<String[]> changes = new ArrayList<>();
+        for (Map.Entry<String, String> file : index.entrySet()) {
+            String blob = working.get(file.getKey());
+            if (!file.getValue().equals(blob)) {
+                changes.add(new String[] {file.getKey(), file.getValue(), blob});
+            }
+        }
+        printDiffs(changes, true);
+    }
+
+    /** Prints the changes staged for the next commit as a unified diff. */
+    public void diffStaged() {
+        loadStagedAddition();
+        loadStagedRemoval();
+        Commit headCommit = loadCommit(head);
+        TreeMap<String, String[]> changes = new TreeMap<>();
+        for (Object file : stagedAddition.keySet()) {
+            String old = headCommit.blob((String) file);
+            if (!stagedAddition.get(file).equals(old)) {
+                changes.put((String) file, new String[] {(String) file, old,
+                    stagedAddition.get(file)});
+            }
+        }
+        for (Object file : stagedRemoval.keySet()) {
+            String old = headCommit.blob((String) file);
+            if (old != null) {
+                changes.put((String) file, new String[] {(String) file, old, null});
+            }
+        }
+        printDiffs(new ArrayList<>(changes.values()), false);
+    }
+
+    /** Prints the changes from commit FROMID to commit TOID, either of
+     *  which may be abbreviated, as a unified diff.  Tree.diff finds the
+     *  changed files, skipping subtrees the commits share. */
+    public void diff(String fromID, String toID) {
+        fromID = resolveCommit(fromID);
+        if (fromID == null) {
+            return;
+        }
+        toID = resolveCommit(toID);
+        if (toID == null) {
+            return;
+        }
+        Commit from = loadCommit(fromID);
+        TreeMap<String, String> changed = new TreeMap<>();
+        Tree.diff(from.tree(), loadCommit(toID).tree(), "", changed);
+        List<String[]> changes = new ArrayList<>();
+        for (Map.Entry<String, String> file : changed.entrySet()) {
+            changes.add(new String[] {file.getKey(), from.blob(file.getKey()),
+                file.getValue()});
+        }
+        printDiffs(changes, false);
+    }
+
+    /** Prints CHANGES, each a path with its old and new blobs (null where
+     *  there is no such file), as a unified diff.  If WORKING, the new
+     *  version of each file is read from the working file.  Files are
+     *  diffed in parallel on the common pool but printed in order, as each
+     *  is done, with at most DIFF_WINDOW diffs held at once. */
+    private static void printDiffs(List<String[]> changes, boolean working) {
+        PrintWriter out = logWriter();
+        ArrayDeque<ForkJoinTask<String>> pending = new ArrayDeque<>();
+        for (String[] change : changes) {
+            if (pending.size() == DIFF_WINDOW) {
+                out.print(pending.remove().join());
+            }
+            pending.add(ForkJoinPool.commonPool().submit(() -> fileDiff(change, working)));
+        }
+        while (!pending.isEmpty()) {
+            out.print(pending.remove().join());
+        }
+        out.flush();
+    }
+
+    /** Returns the unified diff of CHANGE, a path with its old and new
+     *  blobs, reading the new version from the working file if
+     *  WORKING. */
+    private static String fileDiff(String[] change, boolean working) {
+        String path = change[0];
+        byte[] old = change[1] == null ? new byte[0] : loadBlobBytes(change[1]);
+        byte[] now = change[2] == null ? new byte[0]
+                : working ? readContents(join(CWD, path)) : loadBlobBytes(change[2]);
+        String a = change[1] == null ? "/dev/null" : "a/" + path;
+        String b = change[2] == null ? "/dev/null" : "b/" + path;
+        StringBuilder out = new StringBuilder("diff --git a/").append(path)
+                .append(" b/").append(path).append('\n');
+        if (change[1] == null) {
+            out.append("new file\n");
+        } else if (change[2] == null) {
+            out.append("deleted file\n");
+        }
+        if (Diff.binary(old) || Diff.binary(now)) {
+            return out.append("Binary files ").append(a).append(" and ").append(b)
+                    .append(" differ\n").toString();
+        }
+        out.append("--- ").append(a).append("\n+++ ").append(b).append('\n');
+        Diff.Lines oldLines = new Diff.Lines(old);
+        Diff.Lines newLines = new Diff.Lines(now);
+        Diff.unified(out, oldLines, newLines, Diff.diff(oldLines, newLines), Diff.CONTEXT);
+        return out.toString();
+    }
+
     public void rmBranch(String branchName) {
         loadBranches();
         if (branches.get(branchName) == null) {
@@ -351,17 +658,10 @@ public class Repository implements Serializable {
 
     public void reset(String commitID) {
         loadBranches();
-        if (!plainFilenamesIn(COMMITS_DIR).contains(commitID)) {
-            System.out.println("No commit with that id exists.");
+        commitID = resolveCommit(commitID);
+        if (commitID == null) {
             return;
         }
-        if (commitID.length() < 40) {
-            commitID = abbreviated(commitID);
-        }
-        Commit workingCommit = loadCommit(commitID);
-        Commit headCommit = loadCommit(head);
-        workingCommit.loadTrackedFiles(commitID);
-        headCommit.loadTrackedFiles(head);
         String work = workingBranch;
         branches.put("temp", commitID);
         saveBranches();
@@ -373,6 +673,11 @@ public class Repository implements Serializable {
         saveBranches();
     }
 
+    /** Merges branch BRANCHNAME into the current branch.  Only the files
+     *  the given branch changed since the split point, found by Tree.diff,
+     *  need anything done: those the current branch left alone are taken
+     *  from the given branch, and those both changed differently are
+     *  merged line by line by ThreeWayMerge, conflicts and all. */
     public void merge(String branchName) {
         boolean conflicted = false;
         loadBranches();
@@ -386,239 +691,513 @@ public class Repository implements Serializable {
             System.out.println("You have uncommitted changes.");
             return;
         }
-        boolean untrack = untracked(branchName);
-        if (untrack) {
-            return;
-        }
         if (branchName.equals(workingBranch)) {
             System.out.println("Cannot merge a branch with itself.");
             return;
         }
+        boolean untrack = untracked(branchName);
+        if (untrack) {
+            return;
+        }
+        String given = branches.get(branchName);
+        // Histories with no common ancestor merge from an empty split point.
         String splitPoint = split(branchName);
-        if (splitPoint.equals(branches.get(branchName))) {
+        if (given.equals(splitPoint)) {
             System.out.println("Given branch is an ancestor of the current branch.");
             return;
         }
-        ArrayList<String> parentsB = parentsB(branchName);
-        if (parentsB.contains(head)) {
-            checkoutBranch(branchName);
+        if (CommitGraph.with(head, given).isAncestor(head, given)) {
+            reset(given);
             System.out.println("Current branch fast-forwarded.");
-            commit("Merged " + branchName + " into " + workingBranch + ".");
+            return;
         }
-        Commit branchCommit = loadCommit((String) branches.get(branchName));
+        Commit branchCommit = loadCommit(given);
         Commit workingCommit = loadCommit(head);
-        Commit splitPointCommit = loadCommit(splitPoint);
-        for (Object file : branchCommit.trackedFiles().keySet()) {
-            String splitFileBlob = (String) splitPointCommit.trackedFiles().get(file);
-            String workFileBlob = (String) workingCommit.trackedFiles().get(file);
-            String branchFileBlob = (String) branchCommit.trackedFiles().get(file);
-            if (splitFileBlob == null) {
-                if (workFileBlob == null) {
-                    checkout((String) branches.get(branchName), (String) file);
-                    stagedAddition.put(file, branchFileBlob);
-                } else if (!workFileBlob.equals(branchFileBlob)) {
-                    conflicted = conflict((String) file, workingCommit, branchCommit);
-                }
-            }
+        String splitTree = Tree.EMPTY;
+        Map<String, String> splitFiles = Map.of();
+        if (splitPoint != null) {
+            Commit splitPointCommit = loadCommit(splitPoint);
+            splitTree = splitPointCommit.tree();
+            splitFiles = splitPointCommit.trackedFiles();
         }
-        forDelete(workingCommit, branchCommit, splitPoint);
-        for (Object file : splitPointCommit.trackedFiles().keySet()) {
-            String sb = (String) splitPointCommit.trackedFiles().get(file);
-            String wb = (String) workingCommit.trackedFiles().get(file);
-            String bb = (String) branchCommit.trackedFiles().get(file);
-            if ((wb == null && !(bb == null))) {
-                if (!bb.equals(sb)) {
-                    conflicted = conflict((String) file, workingCommit, branchCommit);
-                }
-            }
-            if (wb != null && bb != null && !wb.equals(bb) && !wb.equals(sb)) {
-                conflicted = conflict((String) file, workingCommit, branchCommit);
-            }
-            if (bb == null && wb != null) {
-                if (wb.equals(sb)) {
-                    delete((String) file, splitPoint);
-                } else {
-                    conflicted = conflict((String) file, workingCommit, branchCommit);
-                }
+        TreeMap<String, String> changes = new TreeMap<>();
+        Tree.diff(splitTree, branchCommit.tree(), "", changes);
+        for (Map.Entry<String, String> change : changes.entrySet()) {
+            String file = change.getKey();
+            String sb = splitFiles.get(file);
+            String wb = workingCommit.trackedFiles().get(file);
+            String bb = change.getValue();
+            if (Objects.equals(wb, bb)) {
+                continue;
+            } else if (!Objects.equals(wb, sb)) {
+                conflicted |= mergeFile(file, sb, wb, bb);
+            } else if (bb == null) {
+                WorkingTree.delete(file);
+                stagedRemoval.put(file, sb);
+            } else {
+                writeWorkingFile(file, bb);
+                stagedAddition.put(file, bb);
             }
         }
+        saveStagedAddition();
+        saveStagedRemoval();
         if (conflicted) {
             System.out.println("Encountered a merge conflict");
         }
         commitMerge(branchName);
-        clearStaging();
     }
 
-    private void forDelete(Commit workingCommit, Commit branchCommit, String splitPoint) {
-        Commit splitPointCommit = loadCommit(splitPoint);
-        for (Object file : workingCommit.trackedFiles().keySet()) {
-            String splitFileBlob = (String) splitPointCommit.trackedFiles().get(file);
-            String branchFileBlob = (String) branchCommit.trackedFiles().get(file);
-            if (splitFileBlob == null && branchFileBlob == null) {
-                delete((String) file, splitPoint);
-            }
-        }
+    /** Merges OURS and THEIRS, the blobs of FILE on the current and given
+     *  branches, which were BASE at the split point.  Any of them may be
+     *  null; a file deleted on one side and changed on the other is one
+     *  conflict, and a file added on both is merged from an empty base.
+     *  Writes the result to the working file and stages it, and returns
+     *  true iff it has a conflict. */
+    private boolean mergeFile(String file, String base, String ours, String theirs) {
+        byte[] o = ours == null ? new byte[0] : loadBlobBytes(ours);
+        byte[] t = theirs == null ? new byte[0] : loadBlobBytes(theirs);
+        ThreeWayMerge merged = ours == null || theirs == null ? ThreeWayMerge.conflict(o, t)
+                : ThreeWayMerge.merge(base == null ? new byte[0] : loadBlobBytes(base), o, t);
+        File working = join(CWD, file);
+        working.getParentFile().mkdirs();
+        writeContents(working, merged.contents());
+        String blob = saveBlob(working);
+        StatCache.get().record(file, working, blob);
+        stagedAddition.put(file, blob);
+        return merged.conflicts() > 0;
     }
 
-    private void clearStaging() {
-        stagedAddition.clear();
-        stagedRemoval.clear();
-        saveStagedAddition();
-        saveStagedRemoval();
-    }
-
-    private void delete(String file, String splitPoint) {
-        loadStagedRemoval();
-        Commit splitPointCommit = loadCommit(splitPoint);
-        String splitFileBlob = (String) splitPointCommit.trackedFiles().get(file);
-        restrictedDelete(file);
-        stagedRemoval.put(file, splitFileBlob);
+    private void commitMerge(String branchName) {
+        commit("Merged " + branchName + " into " + workingBranch + ".",
+                branches.get(branchName));
     }
 
-    private void commitMerge(String branchName) {
-        commit("Merged " + branchName + " into " + workingBranch + ".");
-        Commit newCommit = loadCommit(head);
-        newCommit.changeSecondary(workingBranch);
-        saveCommit(newCommit);
+    /** Returns the latest common ancestor of the current branch and
+     *  BRANCHNAME, or null if their histories are disjoint. */
+    private String split(String branchName) {
+        String given = branches.get(branchName);
+        return CommitGraph.with(head, given).mergeBase(head, given);
     }
 
-    private ArrayList<String> parentsB(String branchName) {
-        ArrayList<String> parentsB = new ArrayList<>();
-        Commit branchCommit = loadCommit((String) branches.get(branchName));
-        while (branchCommit.parent() != null) {
-            parentsB.add(branchCommit.parent());
-            branchCommit = loadCommit(branchCommit.parent());
-        }
-        return parentsB;
+    private boolean untracked(String branch) {
+        loadBranches();
+        String headOfBranch = branches.get(branch);
+        return untrackedInTheWay(loadCommit(head), loadCommit(headOfBranch),
+                WorkingTree.files());
     }
 
-    private String split(String branchName) {
-        Commit workingCommit = loadCommit(head);
-        Commit branchCommit = loadCommit((String) branches.get(branchName));
-        ArrayList<String> parentsW = new ArrayList<>();
-        while (workingCommit.parent() != null) {
-            parentsW.add(workingCommit.parent());
-            workingCommit = loadCommit(workingCommit.parent());
-        }
-        if (parentsW.contains((String) branches.get(branchName))) {
-            return (String) branches.get(branchName);
+    /** Returns true, after printing an error, iff checking out TARGET over
+     *  CURRENT would overwrite a working file that CURRENT does not track
+     *  with a different version.  WORKINGFILES are the paths of all working
+     *  files; only those untracked by CURRENT and tracked by TARGET are
+     *  hashed, in parallel. */
+    private static boolean untrackedInTheWay(Commit current, Commit target,
+                                             List<String> workingFiles) {
+        List<String> candidates = new ArrayList<>();
+        for (String fileName : workingFiles) {
+            if (!current.trackedFiles().containsKey(fileName)
+                    && target.trackedFiles().containsKey(fileName)) {
+                candidates.add(fileName);
+            }
         }
-        while (branchCommit.parent() != null) {
-            if (parentsW.contains(branchCommit.parent())) {
-                break;
+        for (Map.Entry<String, String> file : WorkingTree.hash(candidates).entrySet()) {
+            if (!file.getValue().equals(target.trackedFiles().get(file.getKey()))) {
+                System.out.println("There is an untracked file in the way; "
+                        + "delete it, or add and commit it first.");
+                return true;
             }
-            branchCommit = loadCommit(branchCommit.parent());
         }
-        return branchCommit.parent();
+        return false;
     }
 
-    private boolean untracked(String branch) {
+    /** Removes the commits, trees and blobs that no branch can reach and
+     *  that are older than GRACE milliseconds, then packs the remaining
+     *  blobs into a single pack, storing each version of a file as a delta
+     *  against the next newer version.  Commits are marked by walking the
+     *  commit graph from every branch head over both parents; the trees and
+     *  blobs of the marked commits are then marked in parallel.  Objects
+     *  written within the grace period are kept, since a command may have
+     *  just written them; packed blobs are swept whatever their age, as
+     *  only blobs that were marked are ever packed.  Also removes the stale
+     *  <id>tf files that older versions of gitlet left behind. */
+    public void gc(long grace) {
         loadBranches();
-        String headOfBranch = (String) branches.get(branch);
-
-        Commit branchCommit = loadCommit(headOfBranch);
-        Commit workingCommit = loadCommit(head);
+        loadStagedAddition();
+        long cutoff = System.currentTimeMillis() - grace;
+        long before = storeSize();
 
-        for (Object file : plainFilenamesIn(CWD)) {
-            String fileName = (String) file;
-            if (!workingCommit.trackedFiles().containsKey(fileName)) {
-                if (branchCommit.trackedFiles().containsKey(fileName)) {
-                    String workingBlob = sha1(readContentsAsString(join(CWD, fileName)));
-                    String branchBlob = (String) branchCommit.trackedFiles().get(fileName);
-                    if (!workingBlob.equals(branchBlob)) {
-                        System.out.println("There is an untracked file in the way; "
-                                + "delete it, or add and commit it first.");
-                        return true;
-                    }
+        List<String> roots = new ArrayList<>(branches.values());
+        roots.add(head);
+        CommitGraph graph = CommitGraph.with(roots.toArray(new String[0]));
+        BitSet reachable = graph.reachable(roots);
+        BitSet keptRows = new BitSet(graph.size());
+        List<String> kept = new ArrayList<>();
+        HashSet<String> removedCommits = new HashSet<>();
+        for (String id : ObjectStore.COMMITS.ids()) {
+            int row = graph.row(id);
+            if (row != CommitGraph.NONE && reachable.get(row) || recent(
+                    ObjectStore.COMMITS.file(id), cutoff)) {
+                kept.add(id);
+                if (row != CommitGraph.NONE) {
+                    keptRows.set(row);
                 }
+            } else {
+                removedCommits.add(id);
             }
         }
-        return false;
+
+        Set<String> trees = ConcurrentHashMap.newKeySet();
+        Set<String> blobs = ConcurrentHashMap.newKeySet();
+        blobs.addAll(stagedAddition.values());
+        kept.parallelStream().forEach(id -> markTree(loadCommit(id).tree(), trees, blobs));
+
+        if (!removedCommits.isEmpty()) {
+            CommitGraph.retain(keptRows);
+            MessageIndex.remove(removedCommits);
+        }
+        for (String id : removedCommits) {
+            ObjectStore.COMMITS.delete(id);
+        }
+        int removedTrees = 0;
+        for (String id : ObjectStore.TREES.ids()) {
+            if (!trees.contains(id) && !recent(ObjectStore.TREES.file(id), cutoff)) {
+                ObjectStore.TREES.delete(id);
+                removedTrees += 1;
+            }
+        }
+        HashSet<String> removedBlobs = new HashSet<>();
+        LinkedHashSet<String> packable = new LinkedHashSet<>();
+        for (String id : ObjectStore.BLOBS.ids()) {
+            if (blobs.contains(id)) {
+                packable.add(id);
+            } else if (!recent(ObjectStore.BLOBS.file(id), cutoff)) {
+                ObjectStore.BLOBS.delete(id);
+                removedBlobs.add(id);
+            }
+        }
+        for (String id : Pack.ids()) {
+            if (blobs.contains(id)) {
+                packable.add(id);
+            } else if (!ObjectStore.BLOBS.contains(id)) {
+                removedBlobs.add(id);
+            }
+        }
+        long packed = repack(kept, packable);
+        int removedFiles = removeStaleFiles();
+        message("Removed %d commits, %d trees and %d blobs.", removedCommits.size(),
+                removedTrees, removedBlobs.size());
+        if (removedFiles > 0) {
+            message("Removed %d stale files.", removedFiles);
+        }
+        message("Packed blobs into %d bytes.", packed);
+        message("Reclaimed %d bytes.", Math.max(0, before - storeSize()));
     }
 
-    private boolean conflict(String file, Commit workingCommit, Commit branchCommit) {
-        File conflict = join(CWD, file);
-        String f = (String) workingCommit.trackedFiles().get(file);
-        String s = (String) branchCommit.trackedFiles().get(file);
-        String loadedF = "";
-        String loadedS = "";
-        if (f != null) {
-            loadedF = loadBlob(f);
+    /** Adds tree ID and all trees under it to TREES, and their blobs to
+     *  BLOBS.  Subtrees already in TREES are not read again. */
+    private static void markTree(String id, Set<String> trees, Set<String> blobs) {
+        if (!trees.add(id)) {
+            return;
         }
-        if (s != null) {
-            loadedS = loadBlob(s);
+        Tree tree = Tree.load(id);
+        blobs.addAll(tree.blobs().values());
+        for (String subtree : tree.trees().values()) {
+            markTree(subtree, trees, blobs);
         }
-        writeContents(conflict, "<<<<<<< HEAD" + "\n", loadedF,
-                "=======" + "\n", loadedS, ">>>>>>>" + "\n");
-        stagedAddition.put(file, sha1(readContentsAsString(conflict)));
-        //System.out.println(readContentsAsString(conflict));
-        return true;
     }
 
+    /** Returns true iff FILE was written after CUTOFF. */
+    private static boolean recent(File file, long cutoff) {
+        return file.lastModified() > cutoff;
+    }
 
+    /** Packs BLOBS, ordering the versions of each file that the COMMITS
+     *  track newest first.  Returns the size of the new pack in bytes. */
+    private static long repack(List<String> commits, LinkedHashSet<String> blobs) {
+        List<Commit> newestFirst = new ArrayList<>();
+        for (String commitID : commits) {
+            newestFirst.add(loadCommit(commitID));
+        }
+        newestFirst.sort(Comparator.comparingLong(Commit::time).reversed());
+        LinkedHashMap<Object, LinkedHashSet<String>> versions = new LinkedHashMap<>();
+        for (Commit commit : newestFirst) {
+            for (Map.Entry<String, String> file : commit.trackedFiles().entrySet()) {
+                versions.computeIfAbsent(file.getKey(), k -> new LinkedHashSet<>())
+                        .add(file.getValue());
+            }
+        }
+        List<List<String>> chains = new ArrayList<>();
+        for (LinkedHashSet<String> chain : versions.values()) {
+            chain.retainAll(blobs);
+            chains.add(new ArrayList<>(chain));
+        }
+        for (List<String> chain : chains) {
+            chain.forEach(blobs::remove);
+        }
+        return Pack.repack(chains, new ArrayList<>(blobs));
+    }
 
+    /** Returns the number of bytes taken by commits, trees and blobs. */
+    private static long storeSize() {
+        long size = 0;
+        for (ObjectStore store : new ObjectStore[] {ObjectStore.COMMITS,
+            ObjectStore.TREES, ObjectStore.BLOBS}) {
+            for (String id : store.ids()) {
+                size += store.file(id).length();
+            }
+        }
+        for (Pack pack : Pack.packs()) {
+            size += pack.size();
+        }
+        return size;
+    }
 
+    /** Removes the <id>tf files that older versions of gitlet wrote to the
+     *  working directory and the commits directory.  Returns the number of
+     *  files removed. */
+    private static int removeStaleFiles() {
+        int removed = 0;
+        for (File dir : new File[] {CWD, COMMITS_DIR}) {
+            List<String> names = plainFilenamesIn(dir);
+            if (names == null) {
+                continue;
+            }
+            for (String name : names) {
+                if (name.matches("[0-9a-f]{40}tf") && join(dir, name).delete()) {
+                    removed += 1;
+                }
+            }
+        }
+        return removed;
+    }
 
+    /** Returns true iff some objects of this repository are still kept
+     *  as they were before objects were sharded, so that migrateObjects
+     *  must run before any other command. */
+    static boolean unmigrated() {
+        return ObjectStore.COMMITS.unsharded() || ObjectStore.TREES.unsharded()
+            || ObjectStore.BLOBS.unsharded();
+    }
 
+    /** Moves the objects of a repository made before objects were sharded
+     *  by the first two digits of their ids into their shards, rewrites
+     *  commits, trees and state files written by Java serialization in the
+     *  current format, then rebuilds the commit-graph and the message
+     *  index, which a command run before the migration may have built
+     *  from an empty store. */
+    public void migrateObjects() {
+        Tree.TREES_DIR.mkdir();
+        int moved = ObjectStore.COMMITS.migrate() + ObjectStore.TREES.migrate()
+                + ObjectStore.BLOBS.migrate();
+        message("Moved %d objects.", moved);
+        int rewritten = 0;
+        for (String id : ObjectStore.TREES.ids()) {
+            byte[] data = ObjectStore.TREES.readBytes(id);
+            if (Codec.isLegacy(data)) {
+                ObjectStore.TREES.writeBytes(id, Tree.decode(data).encode());
+                rewritten += 1;
+            }
+        }
+        for (String id : ObjectStore.COMMITS.ids()) {
+            byte[] data = ObjectStore.COMMITS.readBytes(id);
+            if (Codec.isLegacy(data)) {
+                Commit commit = Commit.decode(data, id);
+                commit.saveTrees();
+                ObjectStore.COMMITS.writeBytes(id, commit.encode());
+                join(COMMITS_DIR, id + "tf").delete();
+                rewritten += 1;
+            }
+        }
+        loadBranches();
+        saveBranches();
+        loadStagedAddition();
+        saveStagedAddition();
+        loadStagedRemoval();
+        saveStagedRemoval();
+        message("Rewrote %d objects in the current format.", rewritten);
+        CommitGraph.TAIL_FILE.delete();
+        CommitGraph.rebuild();
+        MessageIndex.rebuild();
+    }
 
     public void loadBranches() {
-        File branchesFile = join(GITLET_DIR, "branches");
-        branches = readObject(branchesFile, HashMap.class);
+        branches = loadState("branches");
     }
     public void saveBranches() {
-        File branchesFile = join(GITLET_DIR, "branches");
-        writeObject(branchesFile, branches);
+        saveState("branches", branches);
     }
     public void loadStagedAddition() {
-        File stagedAdditionFile = join(GITLET_DIR, "stagedAddition");
-        stagedAddition = readObject(stagedAdditionFile, HashMap.class);
+        stagedAddition = loadState("stagedAddition");
     }
     public void saveStagedAddition() {
-        File stagedAdditionFile = join(GITLET_DIR, "stagedAddition");
-        writeObject(stagedAdditionFile, stagedAddition);
+        saveState("stagedAddition", stagedAddition);
     }
     public void loadStagedRemoval() {
-        File stagedRemovalFile = join(GITLET_DIR, "stagedRemoval");
-        stagedRemoval = readObject(stagedRemovalFile, HashMap.class);
+        stagedRemoval = loadState("stagedRemoval");
     }
     public void saveStagedRemoval() {
-        File stagedRemovalFile = join(GITLET_DIR, "stagedRemoval");
-        writeObject(stagedRemovalFile, stagedRemoval);
+        saveState("stagedRemoval", stagedRemoval);
     }
-    public static Commit loadCommit(String commitHash) {
-        File commitFile = join(COMMITS_DIR, commitHash);
-        Commit loadedCommit = readObject(commitFile, Commit.class);
-        loadedCommit.loadTrackedFiles(hashCommit(loadedCommit));
-        return loadedCommit;
+    /** Returns a copy of the map kept in the state file NAME.  Only a
+     *  file that is not in the FileCache counts as bytes read. */
+    private static HashMap<String, String> loadState(String name) {
+        try (Trace.Span span = Trace.op(Trace.LOAD_STATE)) {
+            return new HashMap<String, String>(FileCache.read(join(GITLET_DIR, name), data -> {
+                span.bytes(data.length);
+                return Codec.decodeMap(data);
+            }));
+        }
+    }
+    /** Saves a copy of STATE to the state file NAME. */
+    private static void saveState(String name, Map<?, ?> state) {
+        try (Trace.Span span = Trace.op(Trace.SAVE_STATE)) {
+            HashMap<String, String> copy = Codec.strings(state);
+            byte[] data = Codec.encodeMap(copy);
+            span.bytes(data.length);
+            FileCache.write(join(GITLET_DIR, name), copy, data);
+        }
     }
-    public static String hashCommit(Commit commit) {
-        byte[] serializedCommit = serialize(commit);
-        return sha1(serializedCommit);
+    /** Returns commit COMMITHASH, from the ObjectCache if it is there. */
+    public static Commit loadCommit(String commitHash) {
+        try (Trace.Span span = Trace.op(Trace.LOAD_COMMIT)) {
+            Commit commit = (Commit) ObjectCache.get(ObjectCache.COMMIT, commitHash);
+            if (commit == null) {
+                byte[] data = ObjectStore.COMMITS.readBytes(commitHash);
+                span.bytes(data.length);
+                commit = Commit.decode(data, commitHash);
+                ObjectCache.put(ObjectCache.COMMIT, commitHash, commit, commit.weight());
+            }
+            return commit;
+        }
     }
     public static void saveCommit(Commit commit) {
-        String commitHash = hashCommit(commit);
-        File commitFile = join(COMMITS_DIR, commitHash);
-        File tfFile = join(COMMITS_DIR, commitHash + "tf");
-        writeObject(commitFile, commit);
-        writeObject(tfFile, commit.trackedFiles());
+        try (Trace.Span span = Trace.op(Trace.SAVE_COMMIT)) {
+            String commitHash = commit.id();
+            boolean isNew = !ObjectStore.COMMITS.contains(commitHash);
+            byte[] data = commit.encode();
+            span.bytes(data.length);
+            ObjectStore.COMMITS.writeBytes(commitHash, data);
+            ObjectCache.put(ObjectCache.COMMIT, commitHash, commit, commit.weight());
+            CommitGraph.add(commitHash, commit.parent(), commit.secondary(), commit.time());
+            if (isNew) {
+                MessageIndex.add(commitHash, commit.message());
+            }
+        }
     }
     public static void saveBlob(String blob) {
-        String blobHash = sha1(blob);
-        File blobFile = join(BLOBS_DIR, blobHash);
-        if (blobFile.exists()) {
-            return;
+        try (Trace.Span span = Trace.op(Trace.SAVE_BLOB)) {
+            String blobHash = sha1(blob);
+            if (ObjectStore.BLOBS.contains(blobHash) || Pack.contains(blobHash)) {
+                return;
+            }
+            ObjectStore.BLOBS.writeBytes(blobHash, blob);
+            span.bytes(ObjectStore.BLOBS.file(blobHash).length());
+        }
+    }
+    /** Saves the contents of FILE as a blob unless they are already saved,
+     *  and returns the blob's id.  FILE is never read into memory. */
+    public static String saveBlob(File file) {
+        String blobHash = sha1Contents(file);
+        saveBlob(file, blobHash);
+        return blobHash;
+    }
+    /** Saves the contents of FILE, whose SHA-1 is BLOBHASH, as a blob
+     *  unless they are already saved. */
+    public static void saveBlob(File file, String blobHash) {
+        try (Trace.Span span = Trace.op(Trace.SAVE_BLOB)) {
+            if (ObjectStore.BLOBS.contains(blobHash) || Pack.contains(blobHash)) {
+                return;
+            }
+            span.bytes(file.length());
+            ObjectStore.BLOBS.copyIn(blobHash, file);
         }
-        writeContents(blobFile, blob);
     }
     public static String loadBlob(String blobHash) {
-        File blobFile = join(BLOBS_DIR, blobHash);
-        return readContentsAsString(blobFile);
+        return new String(loadBlobBytes(blobHash), StandardCharsets.UTF_8);
+    }
+    /** Writes the contents of blob BLOBHASH to FILE, streaming them from
+     *  the loose blob or the pack that holds it. */
+    public static void writeBlob(String blobHash, File file) {
+        try (Trace.Span span = Trace.op(Trace.WRITE_BLOB)) {
+            if (ObjectStore.BLOBS.contains(blobHash)) {
+                ObjectStore.BLOBS.copyOut(blobHash, file);
+                span.bytes(file.length());
+                return;
+            }
+            try (InputStream in = openBlob(blobHash)) {
+                span.bytes(Files.copy(in, file.toPath(), StandardCopyOption.REPLACE_EXISTING));
+            }
+        } catch (IOException excp) {
+            throw error("Cannot write %s: %s", file.getName(), excp.getMessage());
+        }
+    }
+    /** Returns a stream of the contents of blob BLOBHASH. */
+    public static InputStream openBlob(String blobHash) {
+        if (ObjectStore.BLOBS.contains(blobHash)) {
+            try {
+                return new FileInputStream(ObjectStore.BLOBS.file(blobHash));
+            } catch (IOException excp) {
+                throw error("Cannot read blob %s.", blobHash);
+            }
+        }
+        InputStream packed = Pack.open(blobHash);
+        if (packed == null) {
+            throw error("Missing blob %s.", blobHash);
+        }
+        return packed;
+    }
+    /** Returns the size of blob BLOBHASH in bytes. */
+    public static long blobSize(String blobHash) {
+        if (ObjectStore.BLOBS.contains(blobHash)) {
+            return ObjectStore.BLOBS.file(blobHash).length();
+        }
+        long size = Pack.size(blobHash);
+        if (size < 0) {
+            throw error("Missing blob %s.", blobHash);
+        }
+        return size;
+    }
+    /** Returns the contents of blob BLOBHASH, whether loose or packed, from
+     *  the ObjectCache if they are there.  The result must not be
+     *  modified. */
+    public static byte[] loadBlobBytes(String blobHash) {
+        try (Trace.Span span = Trace.op(Trace.LOAD_BLOB)) {
+            byte[] contents = (byte[]) ObjectCache.get(ObjectCache.BLOB, blobHash);
+            if (contents != null) {
+                return contents;
+            }
+            if (ObjectStore.BLOBS.contains(blobHash)) {
+                contents = ObjectStore.BLOBS.readBytes(blobHash);
+            } else {
+                contents = Pack.read(blobHash);
+                if (contents == null) {
+                    throw error("Missing blob %s.", blobHash);
+                }
+            }
+            span.bytes(contents.length);
+            ObjectCache.put(ObjectCache.BLOB, blobHash, contents, contents.length);
+            return contents;
+        }
     }
 
-    private void printCommit(Commit currentCommit) {
-        System.out.println("===");
-        System.out.println("commit " + hashCommit(currentCommit));
-        System.out.println("Date: " + currentCommit.timeStamp());
-        System.out.println(currentCommit.message() + "\n");
+    /** Returns a buffered writer on the standard output, which the caller
+     *  must flush. */
+    private static PrintWriter logWriter() {
+        return new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out), 1 << 16));
+    }
+
+    /** Prints CURRENTCOMMIT to OUT, on one line if OPTIONS ask for it. */
+    private static void printCommit(PrintWriter out, Commit currentCommit, LogOptions options) {
+        if (options.oneline) {
+            String message = currentCommit.message();
+            int newline = message.indexOf('\n');
+            out.println(currentCommit.id().substring(0, 7) + " "
+                    + (newline < 0 ? message : message.substring(0, newline)));
+            return;
+        }
+        out.println("===");
+        out.println("commit " + currentCommit.id());
+        out.println("Date: " + currentCommit.timeStamp());
+        out.println(currentCommit.message() + "\n");
     }
 }
@@ -0,0 +1,209 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import static gitlet.Utils.*;
+
+/** The index file, which records the size, modification time, inode and
+ *  blob of working files as they were when last hashed.  A file whose
+ *  size, time and inode still match its entry is taken to have the same
+ *  contents, so it need not be read again.
+ *
+ *  @author alysa liu
+ */
+class StatCache {
+
+    /** The index file. */
+    static final File INDEX_FILE = join(Repository.GITLET_DIR, "index");
+
+    /** Magic number at the start of the index file. */
+    private static final int MAGIC = 0x47494e31;
+    /** Files modified less than this many milliseconds before they are
+     *  hashed are not recorded, since a change made within the same tick
+     *  of the file system's clock would not alter their times. */
+    private static final long RACY_MILLIS = 2000;
+
+    /** The attributes read from each file, all from a single stat. */
+    private static final String UNIX_ATTRIBUTES = "unix:size,lastModifiedTime,ino";
+    /** False once the file system is found not to provide inode numbers. */
+    private static volatile boolean unixAttributes = true;
+
+    /** The index, once read. */
+    private static StatCache cache;
+
+    /** The entries of the index, by path.  Files may be hashed on several
+     *  threads at once. */
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+    /** True iff the entries have changed since the index was read. */
+    private volatile boolean changed;
+    /** The stamp of the index file when it was last read or written. */
+    private Object stamp;
+
+    /** The recorded state of one working file. */
+    private static class Entry {
+        /** Size of the file in bytes. */
+        private final long size;
+        /** Modification time of the file in milliseconds. */
+        private final long mtime;
+        /** Inode number of the file, or 0 if not known. */
+        private final long inode;
+        /** Id of the blob with the file's contents. */
+        private final String blob;
+
+        /** An entry for a file of SIZE, MTIME and INODE holding BLOB. */
+        Entry(long size, long mtime, long inode, String blob) {
+            this.size = size;
+            this.mtime = mtime;
+            this.inode = inode;
+            this.blob = blob;
+        }
+
+        /** Returns true iff this entry records the same state as OTHER. */
+        boolean sameStat(Entry other) {
+            return size == other.size && mtime == other.mtime && inode == other.inode;
+        }
+    }
+
+    /** Returns the index, reading it if necessary or if another process
+     *  has written it since.  Callers that hash files in parallel get the
+     *  index once, before they start; the lock only keeps a stray call
+     *  from another thread from reading it twice. */
+    static synchronized StatCache get() {
+        if (cache == null
+                || !cache.changed && !Objects.equals(cache.stamp, FileCache.stamp(INDEX_FILE))) {
+            cache = new StatCache();
+            cache.read();
+        }
+        return cache;
+    }
+
+    /** Returns true iff the index has changed since it was read. */
+    static synchronized boolean changed() {
+        return cache != null && cache.changed;
+    }
+
+    /** Writes the index back through the Journal if it has changed.  The
+     *  caller must hold the repository lock exclusively. */
+    static synchronized void flush() {
+        if (cache != null && cache.changed) {
+            cache.write();
+        }
+    }
+
+    /** Returns the id of the blob with the contents of FILE, whose path in
+     *  the working directory is PATH.  FILE is only read if its size, time
+     *  or inode differ from those in its entry. */
+    String hash(String path, File file) {
+        Entry now = stat(file, null);
+        Entry old = entries.get(path);
+        if (old != null && now != null && old.sameStat(now)) {
+            return old.blob;
+        }
+        String blob = sha1Contents(file);
+        record(path, file, blob);
+        return blob;
+    }
+
+    /** Records that FILE, whose path in the working directory is PATH,
+     *  holds the contents of BLOB. */
+    void record(String path, File file, String blob) {
+        Entry now = stat(file, blob);
+        if (now == null || System.currentTimeMillis() - now.mtime < RACY_MILLIS) {
+            remove(path);
+        } else {
+            entries.put(path, now);
+            changed = true;
+        }
+    }
+
+    /** Forgets the entry for PATH. */
+    void remove(String path) {
+        if (entries.remove(path) != null) {
+            changed = true;
+        }
+    }
+
+    /** Returns an entry for the current state of FILE holding BLOB, or
+     *  null if FILE cannot be examined. */
+    private static Entry stat(File file, String blob) {
+        Path path = file.toPath();
+        try {
+            if (unixAttributes) {
+                try {
+                    Map<String, Object> attrs = Files.readAttributes(path, UNIX_ATTRIBUTES);
+                    return new Entry((Long) attrs.get("size"),
+                            ((FileTime) attrs.get("lastModifiedTime")).toMillis(),
+                            (Long) attrs.get("ino"), blob);
+                } catch (UnsupportedOperationException | IllegalArgumentException excp) {
+                    unixAttributes = false;
+                }
+            }
+            BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+            return new Entry(attrs.size(), attrs.lastModifiedTime().toMillis(), 0, blob);
+        } catch (IOException excp) {
+            return null;
+        }
+    }
+
+    /** Reads the entries from INDEX_FILE, if it exists and is valid. */
+    private void read() {
+        stamp = FileCache.stamp(INDEX_FILE);
+        if (!INDEX_FILE.isFile()) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(INDEX_FILE)))) {
+            if (in.readInt() != MAGIC || in.readInt() != 1) {
+                return;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i += 1) {
+                String path = in.readUTF();
+                long size = in.readLong();
+                long mtime = in.readLong();
+                long inode = in.readLong();
+                String blob = in.readUTF();
+                entries.put(path, new Entry(size, mtime, inode, blob));
+            }
+        } catch (IOException excp) {
+            entries.clear();
+        }
+    }
+
+    /** Writes the entries to INDEX_FILE when the command's Journal
+     *  commits.  The file's stamp is only known after that, so the next
+     *  get reads the index again. */
+    private void write() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(MAGIC);
+            out.writeInt(1);
+            out.writeInt(entries.size());
+            for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                Entry e = entry.getValue();
+                out.writeUTF(entry.getKey());
+                out.writeLong(e.size);
+                out.writeLong(e.mtime);
+                out.writeLong(e.inode);
+                out.writeUTF(e.blob);
+            }
+        } catch (IOException excp) {
+            throw error("Cannot write index: %s", excp.getMessage());
+        }
+        Journal.write(INDEX_FILE, bytes.toByteArray());
+        changed = false;
+        stamp = null;
+    }
+}
@@ -0,0 +1,155 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/** Line-level three-way merges of the versions of a file.  The base is
+ *  diffed against each side; edits of one side that neither overlap nor
+ *  touch an edit of the other are taken as they are, and where both
+ *  sides edited the same lines, the same way or not, the lines are taken
+ *  once if they agree and otherwise become a conflict.  A conflict holds
+ *  only the lines on which the two sides differ: lines they share at its
+ *  start or end are moved out of it.  Conflicts are marked as gitlet
+ *  always has, with each side ended by a newline.
+ *
+ *  @author alysa liu
+ */
+class ThreeWayMerge {
+
+    /** The markers around and between the two sides of a conflict. */
+    private static final byte[] OURS = "<<<<<<< HEAD\n".getBytes(StandardCharsets.UTF_8),
+        SEPARATOR = "=======\n".getBytes(StandardCharsets.UTF_8),
+        THEIRS = ">>>>>>>\n".getBytes(StandardCharsets.UTF_8);
+
+    /** The merged contents. */
+    private final ByteArrayOutputStream out;
+    /** The number of conflicts in the merged contents. */
+    private int conflicts;
+
+    private ThreeWayMerge(int size) {
+        out = new ByteArrayOutputStream(size);
+    }
+
+    /** Returns the merged contents. */
+    byte[] contents() {
+        return out.toByteArray();
+    }
+
+    /** Returns the number of conflicts in the merged contents. */
+    int conflicts() {
+        return conflicts;
+    }
+
+    /** Returns the merge of OURS and THEIRS, two versions of the file
+     *  whose contents were BASE where they split.  BASE is empty for a
+     *  file added on both sides. */
+    static ThreeWayMerge merge(byte[] base, byte[] ours, byte[] theirs) {
+        Diff.Lines o = new Diff.Lines(base), a = new Diff.Lines(ours),
+            b = new Diff.Lines(theirs);
+        Diff.Interner interner = new Diff.Interner();
+        int[] oi = interner.intern(o), ai = interner.intern(a), bi = interner.intern(b);
+        List<Diff.Edit> ea = Diff.diff(oi, ai, interner.size());
+        List<Diff.Edit> eb = Diff.diff(oi, bi, interner.size());
+
+        ThreeWayMerge merge = new ThreeWayMerge(Math.max(ours.length, theirs.length));
+        int pos = 0, i = 0, j = 0, deltaA = 0, deltaB = 0;
+        while (i < ea.size() || j < eb.size()) {
+            int lo = j == eb.size() || i < ea.size() && ea.get(i).aStart <= eb.get(j).aStart
+                    ? ea.get(i).aStart : eb.get(j).aStart;
+            int hi = lo, firstA = i, firstB = j;
+            boolean grew = true;
+            while (grew) {
+                grew = false;
+                if (i < ea.size() && ea.get(i).aStart <= hi) {
+                    hi = Math.max(hi, ea.get(i).aEnd);
+                    i += 1;
+                    grew = true;
+                }
+                if (j < eb.size() && eb.get(j).aStart <= hi) {
+                    hi = Math.max(hi, eb.get(j).aEnd);
+                    j += 1;
+                    grew = true;
+                }
+            }
+            int aLo = lo + deltaA, bLo = lo + deltaB;
+            deltaA += growth(ea, firstA, i);
+            deltaB += growth(eb, firstB, j);
+            int aHi = hi + deltaA, bHi = hi + deltaB;
+
+            o.write(merge.out, pos, lo);
+            pos = hi;
+            if (firstB == j) {
+                a.write(merge.out, aLo, aHi);
+            } else if (firstA == i) {
+                b.write(merge.out, bLo, bHi);
+            } else {
+                merge.resolve(a, ai, aLo, aHi, b, bi, bLo, bHi);
+            }
+        }
+        o.write(merge.out, pos, o.size());
+        return merge;
+    }
+
+    /** Returns the merge of OURS and THEIRS as a single conflict, for a
+     *  file deleted on one side and changed on the other, with the deleted
+     *  side empty. */
+    static ThreeWayMerge conflict(byte[] ours, byte[] theirs) {
+        ThreeWayMerge merge = new ThreeWayMerge(ours.length + theirs.length + 32);
+        Diff.Lines a = new Diff.Lines(ours), b = new Diff.Lines(theirs);
+        merge.conflict(a, 0, a.size(), b, 0, b.size());
+        return merge;
+    }
+
+    /** Returns the number of lines added less the number removed by edits
+     *  [FROM, TO) of EDITS. */
+    private static int growth(List<Diff.Edit> edits, int from, int to) {
+        int growth = 0;
+        for (Diff.Edit edit : edits.subList(from, to)) {
+            growth += (edit.bEnd - edit.bStart) - (edit.aEnd - edit.aStart);
+        }
+        return growth;
+    }
+
+    /** Writes lines [ALO, AHI) of A and [BLO, BHI) of B, numbered AI and
+     *  BI, which both sides put in place of the same lines of the base:
+     *  once if they are the same, and otherwise as a conflict between the
+     *  lines in which they differ. */
+    private void resolve(Diff.Lines a, int[] ai, int aLo, int aHi,
+                         Diff.Lines b, int[] bi, int bLo, int bHi) {
+        int head = 0;
+        while (aLo + head < aHi && bLo + head < bHi && ai[aLo + head] == bi[bLo + head]) {
+            head += 1;
+        }
+        int tail = 0;
+        while (aHi - tail > aLo + head && bHi - tail > bLo + head
+                && ai[aHi - tail - 1] == bi[bHi - tail - 1]) {
+            tail += 1;
+        }
+        a.write(out, aLo, aLo + head);
+        if (aLo + head < aHi - tail || bLo + head < bHi - tail) {
+            conflict(a, aLo + head, aHi - tail, b, bLo + head, bHi - tail);
+        }
+        a.write(out, aHi - tail, aHi);
+    }
+
+    /** Writes a conflict between lines [ALO, AHI) of A and [BLO, BHI) of
+     *  B. */
+    private void conflict(Diff.Lines a, int aLo, int aHi, Diff.Lines b, int bLo, int bHi) {
+        out.writeBytes(OURS);
+        side(a, aLo, aHi);
+        out.writeBytes(SEPARATOR);
+        side(b, bLo, bHi);
+        out.writeBytes(THEIRS);
+        conflicts += 1;
+    }
+
+    /** Writes lines [FROM, TO) of LINES, ending them with a newline if the
+     *  last has none. */
+    private void side(Diff.Lines lines, int from, int to) {
+        lines.write(out, from, to);
+        if (from < to && to == lines.size() && !lines.endsWithNewline()) {
+            out.write('\n');
+        }
+    }
+}
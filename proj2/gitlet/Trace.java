@@ -0,0 +1,340 @@
+package gitlet;
+
+import java.io.PrintStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/** Counts and times what a command does: how many commits, trees, blobs
+ *  and state files it reads and writes, how many bytes those take, how
+ *  many hashes it computes, and how long each phase of the command (taking
+ *  the lock, running, saving, committing the journal) takes.  Tracing is
+ *  off unless GITLET_TRACE is set or the command starts with --trace:
+ *  GITLET_TRACE=summary (or GITLET_STATS, as before) prints a table to
+ *  standard error when the command ends; GITLET_TRACE=json or --trace
+ *  prints a JSON line as each phase ends and one for the whole command.
+ *
+ *  Every operation and phase is also a JFR event in the Gitlet category
+ *  (gitlet.Command, gitlet.Phase, gitlet.Operation), whether or not
+ *  tracing is on, so a recording started with -XX:StartFlightRecording
+ *  shows them next to the JVM's own events.  When neither is on, an
+ *  operation costs one check.
+ *
+ *  @author alysa liu
+ */
+class Trace {
+
+    /** Operation kinds. */
+    static final int LOAD_COMMIT = 0, SAVE_COMMIT = 1, LOAD_TREE = 2, SAVE_TREE = 3,
+        LOAD_BLOB = 4, SAVE_BLOB = 5, WRITE_BLOB = 6, LOAD_STATE = 7, SAVE_STATE = 8,
+        HASH = 9;
+    /** Names of the operation kinds. */
+    private static final String[] OPS = {"loadCommit", "saveCommit", "loadTree",
+        "saveTree", "loadBlob", "saveBlob", "writeBlob", "loadState", "saveState", "hash"};
+
+    /** Tracing is off. */
+    static final int OFF = 0;
+    /** A table is printed when the command ends. */
+    static final int SUMMARY = 1;
+    /** JSON lines are printed as phases and the command end. */
+    static final int JSON = 2;
+
+    /** Number of operations of each kind. */
+    private static final AtomicLongArray COUNTS = new AtomicLongArray(OPS.length);
+    /** Nanoseconds spent in operations of each kind. */
+    private static final AtomicLongArray NANOS = new AtomicLongArray(OPS.length);
+    /** Bytes read or written by operations of each kind. */
+    private static final AtomicLongArray BYTES = new AtomicLongArray(OPS.length);
+    /** Nanoseconds spent in each phase of the current command, in order. */
+    private static final LinkedHashMap<String, Long> PHASES = new LinkedHashMap<>();
+
+    /** An operation that records nothing. */
+    private static final Span NOOP = new Span(-1, null, null);
+    /** Events that are never committed, only asked whether a flight
+     *  recording wants events of their kinds, so that spans allocate
+     *  nothing when neither tracing nor recording is on. */
+    private static final OperationEvent OPERATION_PROBE = new OperationEvent();
+    private static final PhaseEvent PHASE_PROBE = new PhaseEvent();
+
+    /** How the current command is traced. */
+    private static volatile int mode;
+    /** The current command. */
+    private static String command;
+    /** The JFR event of the current command. */
+    private static CommandEvent commandEvent;
+    /** The time the current command started, from System.nanoTime. */
+    private static long start;
+
+    /** An operation or phase in progress, ended by close. */
+    static class Span implements AutoCloseable {
+        /** The kind of operation, or -1 for a phase. */
+        private final int kind;
+        /** The name of the phase, or null. */
+        private final String phase;
+        /** The JFR event of this span. */
+        private final Event event;
+        /** The time this span began. */
+        private final long begun;
+        /** The bytes this operation read or wrote. */
+        private long bytes;
+
+        /** A span of operation KIND or phase PHASE, with JFR event EVENT
+         *  already begun. */
+        Span(int kind, String phase, Event event) {
+            this.kind = kind;
+            this.phase = phase;
+            this.event = event;
+            begun = System.nanoTime();
+        }
+
+        /** Records that this operation read or wrote N more bytes. */
+        void bytes(long n) {
+            bytes += n;
+        }
+
+        @Override
+        public void close() {
+            if (event == null) {
+                return;
+            }
+            long nanos = System.nanoTime() - begun;
+            if (kind >= 0) {
+                record(kind, nanos, bytes);
+                OperationEvent op = (OperationEvent) event;
+                op.end();
+                if (op.shouldCommit()) {
+                    op.operation = OPS[kind];
+                    op.bytes = bytes;
+                    op.commit();
+                }
+            } else {
+                endPhase(phase, nanos);
+                PhaseEvent ph = (PhaseEvent) event;
+                ph.end();
+                if (ph.shouldCommit()) {
+                    ph.command = command;
+                    ph.phase = phase;
+                    ph.commit();
+                }
+            }
+        }
+    }
+
+    @Name("gitlet.Command")
+    @Label("Gitlet Command")
+    @Category("Gitlet")
+    @StackTrace(false)
+    static class CommandEvent extends Event {
+        @Label("Command")
+        String command;
+        @Label("Objects Read")
+        long objectsRead;
+        @Label("Objects Written")
+        long objectsWritten;
+        @Label("Bytes Read")
+        @DataAmount
+        long bytesRead;
+        @Label("Bytes Written")
+        @DataAmount
+        long bytesWritten;
+        @Label("Hashes")
+        long hashes;
+    }
+
+    @Name("gitlet.Phase")
+    @Label("Gitlet Phase")
+    @Category("Gitlet")
+    @StackTrace(false)
+    static class PhaseEvent extends Event {
+        @Label("Command")
+        String command;
+        @Label("Phase")
+        String phase;
+    }
+
+    @Name("gitlet.Operation")
+    @Label("Gitlet Operation")
+    @Category("Gitlet")
+    static class OperationEvent extends Event {
+        @Label("Operation")
+        String operation;
+        @Label("Bytes")
+        @DataAmount
+        long bytes;
+    }
+
+    /** Returns the mode asked for by the environment ENV. */
+    static int configured(Map<String, String> env) {
+        String value = env.get("GITLET_TRACE");
+        if (value != null) {
+            return value.equalsIgnoreCase("json") ? JSON : SUMMARY;
+        }
+        if (env.get("GITLET_STATS") != null || env.get("GITLET_CACHE_STATS") != null) {
+            return SUMMARY;
+        }
+        return OFF;
+    }
+
+    /** Starts tracing command NAME in MODE, clearing what was recorded
+     *  for the last command. */
+    static void start(String name, int traceMode) {
+        mode = traceMode;
+        command = name;
+        for (int kind = 0; kind < OPS.length; kind += 1) {
+            COUNTS.set(kind, 0);
+            NANOS.set(kind, 0);
+            BYTES.set(kind, 0);
+        }
+        synchronized (PHASES) {
+            PHASES.clear();
+        }
+        commandEvent = new CommandEvent();
+        commandEvent.begin();
+        start = System.nanoTime();
+    }
+
+    /** Returns a span timing an operation of KIND, to be closed when it
+     *  ends. */
+    static Span op(int kind) {
+        if (mode == OFF && !OPERATION_PROBE.isEnabled()) {
+            return NOOP;
+        }
+        OperationEvent event = new OperationEvent();
+        event.begin();
+        return new Span(kind, null, event);
+    }
+
+    /** Returns a span timing the phase NAME of the current command, to be
+     *  closed when it ends. */
+    static Span phase(String name) {
+        if (mode == OFF && !PHASE_PROBE.isEnabled()) {
+            return NOOP;
+        }
+        PhaseEvent event = new PhaseEvent();
+        event.begin();
+        return new Span(-1, name, event);
+    }
+
+    /** Adds an operation of KIND that took NANOS and moved BYTES. */
+    private static void record(int kind, long nanos, long bytes) {
+        COUNTS.incrementAndGet(kind);
+        NANOS.addAndGet(kind, nanos);
+        BYTES.addAndGet(kind, bytes);
+    }
+
+    /** Adds NANOS to phase NAME, printing it if tracing as JSON. */
+    private static void endPhase(String name, long nanos) {
+        synchronized (PHASES) {
+            PHASES.merge(name, nanos, Long::sum);
+        }
+        if (mode == JSON) {
+            System.err.printf("{\"event\":\"phase\",\"command\":%s,\"phase\":%s,\"ms\":%.3f}%n",
+                    quote(command), quote(name), nanos / 1e6);
+        }
+    }
+
+    /** Ends the current command, printing what was recorded. */
+    static void finish() {
+        long nanos = System.nanoTime() - start;
+        if (commandEvent != null) {
+            commandEvent.end();
+            if (commandEvent.shouldCommit()) {
+                commandEvent.command = command;
+                commandEvent.objectsRead = COUNTS.get(LOAD_COMMIT) + COUNTS.get(LOAD_TREE)
+                        + COUNTS.get(LOAD_BLOB);
+                commandEvent.objectsWritten = COUNTS.get(SAVE_COMMIT) + COUNTS.get(SAVE_TREE)
+                        + COUNTS.get(SAVE_BLOB);
+                commandEvent.bytesRead = total(LOAD_COMMIT, LOAD_TREE, LOAD_BLOB, LOAD_STATE);
+                commandEvent.bytesWritten = total(SAVE_COMMIT, SAVE_TREE, SAVE_BLOB,
+                        WRITE_BLOB, SAVE_STATE);
+                commandEvent.hashes = COUNTS.get(HASH);
+                commandEvent.commit();
+            }
+            commandEvent = null;
+        }
+        if (mode == SUMMARY) {
+            printSummary(System.err, nanos);
+        } else if (mode == JSON) {
+            printJson(System.err, nanos);
+        }
+        mode = OFF;
+    }
+
+    /** Returns the bytes moved by operations of KINDS. */
+    private static long total(int... kinds) {
+        long sum = 0;
+        for (int kind : kinds) {
+            sum += BYTES.get(kind);
+        }
+        return sum;
+    }
+
+    /** Prints a table of the current command's phases and operations,
+     *  which took NANOS in all, to OUT. */
+    private static void printSummary(PrintStream out, long nanos) {
+        out.printf("%s: %.1f ms%n", command, nanos / 1e6);
+        synchronized (PHASES) {
+            for (Map.Entry<String, Long> phase : PHASES.entrySet()) {
+                out.printf("  %-12s %10.1f ms%n", phase.getKey(), phase.getValue() / 1e6);
+            }
+        }
+        for (int kind = 0; kind < OPS.length; kind += 1) {
+            if (COUNTS.get(kind) > 0) {
+                out.printf("  %-12s %10d ops %12d bytes %10.1f ms%n", OPS[kind],
+                        COUNTS.get(kind), BYTES.get(kind), NANOS.get(kind) / 1e6);
+            }
+        }
+        out.println(ObjectCache.stats());
+        out.println(LockManager.stats());
+    }
+
+    /** Prints the current command's phases, operations, cache lookups and
+     *  lock wait, which took NANOS in all, to OUT as one JSON object. */
+    private static void printJson(PrintStream out, long nanos) {
+        StringBuilder json = new StringBuilder("{\"event\":\"command\",\"command\":")
+                .append(quote(command)).append(String.format(",\"ms\":%.3f", nanos / 1e6))
+                .append(",\"phases\":{");
+        synchronized (PHASES) {
+            String sep = "";
+            for (Map.Entry<String, Long> phase : PHASES.entrySet()) {
+                json.append(sep).append(quote(phase.getKey()))
+                        .append(String.format(":%.3f", phase.getValue() / 1e6));
+                sep = ",";
+            }
+        }
+        json.append("},\"ops\":{");
+        String sep = "";
+        for (int kind = 0; kind < OPS.length; kind += 1) {
+            if (COUNTS.get(kind) > 0) {
+                json.append(sep).append(quote(OPS[kind]))
+                        .append(String.format(":{\"count\":%d,\"bytes\":%d,\"ms\":%.3f}",
+                                COUNTS.get(kind), BYTES.get(kind), NANOS.get(kind) / 1e6));
+                sep = ",";
+            }
+        }
+        json.append("},\"cache\":").append(ObjectCache.json())
+                .append(",\"lockWaitMs\":").append(LockManager.waited()).append('}');
+        out.println(json);
+    }
+
+    /** Returns S as a JSON string. */
+    static String quote(String s) {
+        StringBuilder quoted = new StringBuilder("\"");
+        for (char c : s.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                quoted.append('\\').append(c);
+            } else if (c < ' ') {
+                quoted.append(String.format("\\u%04x", (int) c));
+            } else {
+                quoted.append(c);
+            }
+        }
+        return quoted.append('"').toString();
+    }
+}
@@ -0,0 +1,248 @@
+package gitlet;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import static gitlet.Utils.*;
+
+/** Represents a gitlet tree object: the contents of one directory, as the
+ *  blobs of the files directly inside it and the trees of its
+ *  subdirectories.  Trees are saved under the SHA-1 of their entries, so
+ *  commits that share an unchanged directory share its tree.
+ *
+ *  @author alysa liu
+ */
+public class Tree {
+    /** The directory of trees. */
+    static final File TREES_DIR = join(Repository.GITLET_DIR, "trees");
+    /** The id of the tree with no entries. */
+    static final String EMPTY = new Tree().id();
+
+    /** Blobs of the files in this directory, by file name. */
+    private TreeMap<String, String> blobs = new TreeMap<>();
+    /** Trees of the subdirectories of this directory, by directory name. */
+    private TreeMap<String, String> trees = new TreeMap<>();
+
+    /** Returns the id of this Tree, the SHA-1 of its entries in name order. */
+    public String id() {
+        StringBuilder entries = new StringBuilder();
+        for (Map.Entry<String, String> blob : blobs.entrySet()) {
+            entries.append("blob ").append(blob.getValue()).append(" ")
+                    .append(blob.getKey()).append("\n");
+        }
+        for (Map.Entry<String, String> tree : trees.entrySet()) {
+            entries.append("tree ").append(tree.getValue()).append(" ")
+                    .append(tree.getKey()).append("\n");
+        }
+        return sha1("tree\n", entries.toString());
+    }
+
+    /** Returns the blobs of the files in this directory, by name. */
+    public Map<String, String> blobs() {
+        return blobs;
+    }
+
+    /** Returns the trees of the subdirectories of this directory, by name. */
+    public Map<String, String> trees() {
+        return trees;
+    }
+
+    /** Returns the contents of the file that holds this Tree. */
+    byte[] encode() {
+        return Codec.encode(Codec.TREE, out -> {
+            writeEntries(out, blobs);
+            writeEntries(out, trees);
+        });
+    }
+
+    /** Writes the number of ENTRIES, then each name and id, to OUT. */
+    private static void writeEntries(DataOutputStream out, Map<String, String> entries)
+            throws IOException {
+        Codec.writeVarint(out, entries.size());
+        for (Map.Entry<String, String> entry : entries.entrySet()) {
+            Codec.writeString(out, entry.getKey());
+            Codec.writeId(out, entry.getValue());
+        }
+    }
+
+    /** Reads entries written by writeEntries from IN into ENTRIES. */
+    private static void readEntries(DataInputStream in, Map<String, String> entries)
+            throws IOException {
+        for (long n = Codec.readVarint(in); n > 0; n -= 1) {
+            String name = Codec.readString(in);
+            entries.put(name, Codec.readId(in));
+        }
+    }
+
+    /** Returns the Tree held in DATA, in either format. */
+    static Tree decode(byte[] data) {
+        Tree tree = new Tree();
+        if (Codec.isLegacy(data)) {
+            Legacy.Record record = (Legacy.Record) Legacy.read(data);
+            tree.blobs.putAll(record.map("blobs"));
+            tree.trees.putAll(record.map("trees"));
+            return tree;
+        }
+        try {
+            DataInputStream in = Codec.open(data, Codec.TREE);
+            readEntries(in, tree.blobs);
+            readEntries(in, tree.trees);
+        } catch (IOException excp) {
+            throw error("Corrupt tree.");
+        }
+        return tree;
+    }
+
+    /** Returns the tree with id ID, from the ObjectCache if it is there.
+     *  The result must not be modified. */
+    static Tree load(String id) {
+        if (id.equals(EMPTY)) {
+            return new Tree();
+        }
+        try (Trace.Span span = Trace.op(Trace.LOAD_TREE)) {
+            Tree tree = (Tree) ObjectCache.get(ObjectCache.TREE, id);
+            if (tree == null) {
+                byte[] data = ObjectStore.TREES.readBytes(id);
+                span.bytes(data.length);
+                tree = decode(data);
+                ObjectCache.put(ObjectCache.TREE, id, tree,
+                        100 + 150L * (tree.blobs.size() + tree.trees.size()));
+            }
+            return tree;
+        }
+    }
+
+    /** Saves TREE, unless a tree with the same entries is already saved,
+     *  and returns its id. */
+    static String save(Tree tree) {
+        try (Trace.Span span = Trace.op(Trace.SAVE_TREE)) {
+            String id = tree.id();
+            if (!id.equals(EMPTY) && !ObjectStore.TREES.contains(id)) {
+                byte[] data = tree.encode();
+                span.bytes(data.length);
+                ObjectStore.TREES.writeBytes(id, data);
+            }
+            return id;
+        }
+    }
+
+    /** Returns the id of the tree of FILES, which maps slash-separated
+     *  paths to their blobs, as update would make it from EMPTY, but
+     *  without saving any tree. */
+    static String idOf(Map<String, String> files) {
+        Tree tree = new Tree();
+        HashMap<String, HashMap<String, String>> nested = new HashMap<>();
+        for (Map.Entry<String, String> file : files.entrySet()) {
+            String path = file.getKey();
+            int slash = path.indexOf('/');
+            if (slash < 0) {
+                tree.blobs.put(path, file.getValue());
+            } else {
+                nested.computeIfAbsent(path.substring(0, slash), k -> new HashMap<>())
+                        .put(path.substring(slash + 1), file.getValue());
+            }
+        }
+        for (Map.Entry<String, HashMap<String, String>> dir : nested.entrySet()) {
+            tree.trees.put(dir.getKey(), idOf(dir.getValue()));
+        }
+        return tree.id();
+    }
+
+    /** Returns the id of the tree that results from applying CHANGES to
+     *  tree ID.  CHANGES maps slash-separated paths relative to ID to their
+     *  new blobs, or to null for paths to remove.  Only the trees on the
+     *  paths to the changed files are rewritten; every other subtree keeps
+     *  its id. */
+    static String update(String id, Map<String, String> changes) {
+        if (changes.isEmpty()) {
+            return id;
+        }
+        Tree old = load(id);
+        Tree tree = new Tree();
+        tree.blobs.putAll(old.blobs);
+        tree.trees.putAll(old.trees);
+        HashMap<String, HashMap<String, String>> nested = new HashMap<>();
+        for (Map.Entry<String, String> change : changes.entrySet()) {
+            String path = change.getKey();
+            int slash = path.indexOf('/');
+            if (slash < 0) {
+                if (change.getValue() == null) {
+                    tree.blobs.remove(path);
+                } else {
+                    tree.blobs.put(path, change.getValue());
+                }
+            } else {
+                nested.computeIfAbsent(path.substring(0, slash), k -> new HashMap<>())
+                        .put(path.substring(slash + 1), change.getValue());
+            }
+        }
+        for (Map.Entry<String, HashMap<String, String>> dir : nested.entrySet()) {
+            String child = update(tree.trees.getOrDefault(dir.getKey(), EMPTY), dir.getValue());
+            if (child.equals(EMPTY)) {
+                tree.trees.remove(dir.getKey());
+            } else {
+                tree.trees.put(dir.getKey(), child);
+            }
+        }
+        return save(tree);
+    }
+
+    /** Returns the blob of the file at PATH in tree ID, or null. */
+    static String lookup(String id, String path) {
+        String[] names = path.split("/");
+        for (int i = 0; i < names.length - 1; i += 1) {
+            id = load(id).trees.get(names[i]);
+            if (id == null) {
+                return null;
+            }
+        }
+        return load(id).blobs.get(names[names.length - 1]);
+    }
+
+    /** Adds to CHANGES, keyed by path with PREFIX prepended, every file
+     *  whose blob differs between tree FROM and tree TO, mapped to its blob
+     *  in TO, or to null if TO does not have it.  Subtrees with the same id
+     *  on both sides are skipped without being read. */
+    static void diff(String from, String to, String prefix, Map<String, String> changes) {
+        if (from.equals(to)) {
+            return;
+        }
+        Tree a = load(from);
+        Tree b = load(to);
+        for (Map.Entry<String, String> blob : a.blobs.entrySet()) {
+            if (!b.blobs.containsKey(blob.getKey())) {
+                changes.put(prefix + blob.getKey(), null);
+            }
+        }
+        for (Map.Entry<String, String> blob : b.blobs.entrySet()) {
+            if (!blob.getValue().equals(a.blobs.get(blob.getKey()))) {
+                changes.put(prefix + blob.getKey(), blob.getValue());
+            }
+        }
+        for (Map.Entry<String, String> dir : a.trees.entrySet()) {
+            if (!b.trees.containsKey(dir.getKey())) {
+                diff(dir.getValue(), EMPTY, prefix + dir.getKey() + "/", changes);
+            }
+        }
+        for (Map.Entry<String, String> dir : b.trees.entrySet()) {
+            diff(a.trees.getOrDefault(dir.getKey(), EMPTY), dir.getValue(),
+                    prefix + dir.getKey() + "/", changes);
+        }
+    }
+
+    /** Adds the blob of every file in tree ID to FILES, keyed by its path
+     *  with PREFIX prepended. */
+    static void flatten(String id, String prefix, Map<String, String> files) {
+        Tree tree = load(id);
+        for (Map.Entry<String, String> blob : tree.blobs.entrySet()) {
+            files.put(prefix + blob.getKey(), blob.getValue());
+        }
+        for (Map.Entry<String, String> dir : tree.trees.entrySet()) {
+            flatten(dir.getValue(), prefix + dir.getKey() + "/", files);
+        }
+    }
+}
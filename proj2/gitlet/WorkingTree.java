@@ -0,0 +1,159 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.stream.IntStream;
+import static gitlet.Utils.*;
+
+/** The files of the working directory, at any depth, named by their
+ *  slash-separated paths relative to it.  Directories are walked and files
+ *  hashed on the common fork-join pool, so large trees use every core.
+ *
+ *  @author alysa liu
+ */
+class WorkingTree {
+
+    /** The working directory. */
+    private static final File CWD = Repository.CWD;
+
+    /** Lists one directory, forking a task for each subdirectory.  Links
+     *  to directories are not followed, so a link to an ancestor cannot
+     *  make the walk endless; links to files are listed as files.  Walks
+     *  are never serialized. */
+    @SuppressWarnings("serial")
+    private static class Walk extends RecursiveTask<List<String>> {
+        /** The directory to list. */
+        private final File dir;
+        /** The path of DIR, followed by a slash, or "" for CWD. */
+        private final String prefix;
+
+        /** A walk of DIR, whose path is PREFIX. */
+        Walk(File dir, String prefix) {
+            this.dir = dir;
+            this.prefix = prefix;
+        }
+
+        @Override
+        protected List<String> compute() {
+            List<String> files = new ArrayList<>();
+            List<Walk> subdirs = new ArrayList<>();
+            File[] entries = dir.listFiles();
+            if (entries == null) {
+                return files;
+            }
+            for (File entry : entries) {
+                String name = entry.getName();
+                BasicFileAttributes attrs;
+                try {
+                    attrs = Files.readAttributes(entry.toPath(), BasicFileAttributes.class,
+                            LinkOption.NOFOLLOW_LINKS);
+                } catch (IOException excp) {
+                    continue;
+                }
+                if (attrs.isDirectory()) {
+                    if (!(prefix.isEmpty() && name.equals(".gitlet"))) {
+                        Walk walk = new Walk(entry, prefix + name + "/");
+                        walk.fork();
+                        subdirs.add(walk);
+                    }
+                } else if (attrs.isRegularFile() || attrs.isSymbolicLink() && entry.isFile()) {
+                    files.add(prefix + name);
+                }
+            }
+            for (Walk walk : subdirs) {
+                files.addAll(walk.join());
+            }
+            return files;
+        }
+    }
+
+    /** Returns the paths of all files in the working directory, outside
+     *  .gitlet, in sorted order. */
+    static List<String> files() {
+        List<String> files = ForkJoinPool.commonPool().invoke(new Walk(CWD, ""));
+        Collections.sort(files);
+        return files;
+    }
+
+    /** Returns the paths of the working files that SPEC names, in sorted
+     *  order.  SPEC is a file, a directory, standing for every file below
+     *  it ("." is the whole working directory), or a glob such as
+     *  "src/*.txt", matched against whole paths.  The list is empty if
+     *  SPEC names no file. */
+    static List<String> match(String spec) {
+        while (spec.startsWith("./")) {
+            spec = spec.substring(2);
+        }
+        while (spec.endsWith("/")) {
+            spec = spec.substring(0, spec.length() - 1);
+        }
+        if (spec.isEmpty() || spec.equals(".")) {
+            return files();
+        } else if (spec.equals(".gitlet") || spec.startsWith(".gitlet/")) {
+            return Collections.emptyList();
+        } else if (spec.matches(".*[*?\\[{].*")) {
+            PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + spec);
+            List<String> result = new ArrayList<>();
+            for (String path : files()) {
+                if (matcher.matches(Paths.get(path))) {
+                    result.add(path);
+                }
+            }
+            return result;
+        }
+        File file = join(CWD, spec);
+        if (file.isFile()) {
+            return Collections.singletonList(spec);
+        } else if (file.isDirectory()) {
+            List<String> files = ForkJoinPool.commonPool().invoke(new Walk(file, spec + "/"));
+            Collections.sort(files);
+            return files;
+        }
+        return Collections.emptyList();
+    }
+
+    /** Returns the blobs of the working files at PATHS, by path.  Files are
+     *  hashed in parallel, and only if the StatCache has no current entry
+     *  for them. */
+    static TreeMap<String, String> hash(List<String> paths) {
+        StatCache cache = StatCache.get();
+        String[] blobs = new String[paths.size()];
+        IntStream.range(0, blobs.length).parallel().forEach(i -> {
+            String path = paths.get(i);
+            blobs[i] = cache.hash(path, join(CWD, path));
+        });
+        TreeMap<String, String> result = new TreeMap<>();
+        for (int i = 0; i < blobs.length; i += 1) {
+            result.put(paths.get(i), blobs[i]);
+        }
+        return result;
+    }
+
+    /** Deletes the working file at PATH, if there is one, and any
+     *  directories that leaves empty. */
+    static void delete(String path) {
+        File file = join(CWD, path);
+        if (file.isFile()) {
+            file.delete();
+        }
+        StatCache.get().remove(path);
+        for (File dir = file.getParentFile(); dir != null && !dir.equals(CWD);
+             dir = dir.getParentFile()) {
+            if (!dir.delete()) {
+                break;
+            }
+        }
+    }
+}
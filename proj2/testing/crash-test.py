@@ -0,0 +1,126 @@
+"""Fault-injection test for gitlet's journal.
+
+Usage: python3 crash-test.py [--progdir=DIR] [--verbose]
+
+For each scenario, sets up a repository, then runs the scenario's command
+again and again with GITLET_CRASH_AT=1, 2, ..., so that the process halts
+at each step that writes to .gitlet in turn, until the command runs to the
+end.  After each halt, the branches, the staging area and the log must be
+exactly as they were before the command or exactly as they are after it
+runs without a crash.  Working files are not part of the check: commands
+that update them (checkout, reset, merge) may be cut off halfway there.
+"""
+
+import os, re, shutil, subprocess, sys, tempfile
+from getopt import getopt
+
+CRASHED = 99
+
+SCENARIOS = [
+    ("add", [], [["add", "f.txt", "g.txt"]]),
+    ("commit", [["add", "f.txt", "g.txt"]], [["commit", "two files"]]),
+    ("rm", [["add", "f.txt"], ["commit", "one"]], [["rm", "f.txt"]]),
+    ("branch", [["add", "f.txt"], ["commit", "one"]], [["branch", "other"]]),
+    ("checkout",
+     [["add", "f.txt"], ["commit", "one"], ["branch", "other"],
+      ["add", "g.txt"], ["commit", "two"]],
+     [["checkout", "other"]]),
+    ("reset",
+     [["add", "f.txt"], ["commit", "one"], ["add", "g.txt"], ["commit", "two"]],
+     [["reset", "${first}"]]),
+    ("merge",
+     [["add", "f.txt"], ["commit", "one"], ["branch", "other"],
+      ["add", "g.txt"], ["commit", "two"], ["checkout", "other"],
+      ["add", "h.txt"], ["commit", "three"], ["checkout", "master"]],
+     [["merge", "other"]]),
+]
+
+def gitlet(cwd, args, crash_at=None):
+    env = dict(os.environ, GITLET_NO_DAEMON="1")
+    env.pop("GITLET_CRASH_AT", None)
+    if crash_at is not None:
+        env["GITLET_CRASH_AT"] = str(crash_at)
+    result = subprocess.run(["java", "gitlet.Main"] + args, cwd=cwd, env=env,
+                            stdout=subprocess.PIPE, stderr=subprocess.STDOUT,
+                            universal_newlines=True)
+    return result.returncode, result.stdout
+
+def observe(cwd):
+    """The state that must change all at once: the branches, the staging
+    area and the log, without commit ids and dates."""
+    _, status = gitlet(cwd, ["status"])
+    status = status.split("=== Modifications Not Staged")[0]
+    _, log = gitlet(cwd, ["log"])
+    log = re.sub(r"(?m)^(commit|Date:) .*\n", "", log)
+    return status + log
+
+def setup(root, commands):
+    repo = os.path.join(root, "setup")
+    os.mkdir(repo)
+    for name in ("f.txt", "g.txt", "h.txt"):
+        with open(os.path.join(repo, name), "w") as out:
+            out.write("This is " + name + ".\n")
+    gitlet(repo, ["init"])
+    first = None
+    for command in commands:
+        gitlet(repo, command)
+        if first is None and command[0] == "commit":
+            _, log = gitlet(repo, ["log"])
+            first = re.search(r"commit ([0-9a-f]+)", log).group(1)
+    return repo, {"${first}": first}
+
+def expand(command, defs):
+    return [defs.get(arg, arg) for arg in command]
+
+def run(name, setup_commands, commands, verbose):
+    root = tempfile.mkdtemp(prefix="gitlet-crash-")
+    try:
+        repo, defs = setup(root, setup_commands)
+        before = observe(repo)
+        clean = os.path.join(root, "clean")
+        shutil.copytree(repo, clean)
+        for command in commands:
+            gitlet(clean, expand(command, defs))
+        after = observe(clean)
+        failures = 0
+        step = 1
+        while True:
+            trial = os.path.join(root, "step%d" % step)
+            shutil.copytree(repo, trial)
+            code = None
+            for command in commands:
+                code, _ = gitlet(trial, expand(command, defs), step)
+                if code == CRASHED:
+                    break
+            if code != CRASHED:
+                break
+            state = observe(trial)
+            if state not in (before, after):
+                failures += 1
+                print("%s: halted at step %d, state is neither before nor after:\n%s"
+                      % (name, step, state))
+            elif verbose:
+                print("%s: step %d -> %s" % (name, step,
+                                             "before" if state == before else "after"))
+            shutil.rmtree(trial)
+            step += 1
+        print("%s: %d crash points, %d failures" % (name, step - 1, failures))
+        return failures
+    finally:
+        shutil.rmtree(root)
+
+def main():
+    opts, _ = getopt(sys.argv[1:], "", ["progdir=", "verbose"])
+    verbose = False
+    for opt, value in opts:
+        if opt == "--progdir":
+            os.environ["CLASSPATH"] = os.path.abspath(value)
+        elif opt == "--verbose":
+            verbose = True
+    failures = 0
+    for name, setup_commands, commands in SCENARIOS:
+        failures += run(name, setup_commands, commands, verbose)
+    sys.exit(1 if failures else 0)
+
+if __name__ == "__main__":
+    main()
@@ -0,0 +1,71 @@
+"""Test of gitlet's repository lock.
+
+Usage: python3 lock-test.py [--progdir=DIR]
+
+Runs many adds of different files at once and checks that none of them is
+lost, then holds the lock from this process and checks that commands time
+out with an error naming the holder, and that a shared hold lets read-only
+commands through while commands that change the repository still wait.
+"""
+
+import fcntl, os, shutil, subprocess, sys, tempfile
+from getopt import getopt
+
+PROCESSES = 16
+
+def gitlet(cwd, args, **env):
+    env = dict(os.environ, GITLET_NO_DAEMON="1", **env)
+    return subprocess.Popen(["java", "gitlet.Main"] + args, cwd=cwd, env=env,
+                            stdout=subprocess.PIPE, stderr=subprocess.STDOUT,
+                            universal_newlines=True)
+
+def output(cwd, args, **env):
+    return gitlet(cwd, args, **env).communicate()[0]
+
+def check(condition, message):
+    if not condition:
+        print("FAILED: " + message)
+    return 0 if condition else 1
+
+def main():
+    opts, _ = getopt(sys.argv[1:], "", ["progdir="])
+    for opt, value in opts:
+        if opt == "--progdir":
+            os.environ["CLASSPATH"] = os.path.abspath(value)
+    repo = tempfile.mkdtemp(prefix="gitlet-lock-")
+    failures = 0
+    try:
+        output(repo, ["init"])
+        names = ["f%d.txt" % i for i in range(PROCESSES)]
+        for name in names:
+            with open(os.path.join(repo, name), "w") as out:
+                out.write(name + "\n")
+        for process in [gitlet(repo, ["add", name]) for name in names]:
+            process.communicate()
+        status = output(repo, ["status"])
+        staged = status.split("=== Staged Files ===")[1].split("===")[0].split()
+        failures += check(sorted(staged) == sorted(names),
+                          "parallel adds staged %s" % staged)
+
+        fd = os.open(os.path.join(repo, ".gitlet", "lock"), os.O_RDWR)
+        fcntl.lockf(fd, fcntl.LOCK_EX)
+        os.write(fd, ("%d lock-test\n" % os.getpid()).encode())
+        result = output(repo, ["log"], GITLET_LOCK_TIMEOUT="300")
+        failures += check("(pid %d, lock-test)" % os.getpid() in result,
+                          "log under an exclusive hold printed %r" % result)
+        os.ftruncate(fd, 0)
+        fcntl.lockf(fd, fcntl.LOCK_SH)
+        result = output(repo, ["log"], GITLET_LOCK_TIMEOUT="300")
+        failures += check(result.startswith("==="),
+                          "log under a shared hold printed %r" % result)
+        result = output(repo, ["branch", "b"], GITLET_LOCK_TIMEOUT="300")
+        failures += check(result.startswith("Another gitlet process"),
+                          "branch under a shared hold printed %r" % result)
+        os.close(fd)
+    finally:
+        shutil.rmtree(repo)
+    print("lock: %d failures" % failures)
+    sys.exit(1 if failures else 0)
+
+if __name__ == "__main__":
+    main()